@@ -24,8 +24,6 @@ import org.example.sd.common.DatabaseClient;
 import org.example.sd.common.RegistrationAuthenticationStatus;
 
 public class Client {
-    public static final int N_CONDITIONS = 32;
-
     public static void main(String[] args) {
         // Parse command line arguments
         String address = "";
@@ -48,7 +46,7 @@ public class Client {
         // Initialization
         DatabaseClient database = null;
         try {
-            database = new DatabaseClient(address, port, Client.N_CONDITIONS);
+            database = new DatabaseClient(address, port);
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
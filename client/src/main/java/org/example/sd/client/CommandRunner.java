@@ -20,19 +20,29 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import org.example.sd.common.AsyncKeyValueDB;
+import org.example.sd.common.AsyncKeyValueDBAdapter;
 import org.example.sd.common.DatabaseClientException;
 import org.example.sd.common.KeyValueDB;
-import org.example.sd.common.Message;
 
 import org.apache.commons.lang3.StringUtils;
 
 public abstract class CommandRunner {
-    private final KeyValueDB database;
+    private final KeyValueDB      database;
+    private final AsyncKeyValueDB asyncDatabase;
 
     protected CommandRunner(KeyValueDB database) {
         this.database = database;
+        if (database instanceof AsyncKeyValueDB)
+            this.asyncDatabase = (AsyncKeyValueDB) database;
+        else
+            this.asyncDatabase = new AsyncKeyValueDBAdapter(database);
     }
 
     public void parseAndRun(String str) throws CommandException {
@@ -65,14 +75,9 @@ public abstract class CommandRunner {
         if (!StringUtils.isAlphanumeric(argument))
             throw new CommandException("Non-alphanumeric GET argument: " + argument);
 
-        chooseForegroundOrBackground(isBackground, () -> {
-            try {
-                byte[] value = this.database.get(argument);
-                this.reactToGetResult(argument, value);
-            } catch (DatabaseClientException e) {
-                this.reactToException(e);
-            }
-        });
+        this.runCommand(isBackground,
+                        () -> this.asyncDatabase.getAsync(argument),
+                        value -> this.reactToGetResult(argument, value));
     }
 
     private void parseAndRunPut(String arguments, boolean isBackground) throws CommandException {
@@ -86,14 +91,9 @@ public abstract class CommandRunner {
 
         byte[] value = this.parseValueArray(arguments.substring(keyEnd).trim(), "PUT");
 
-        chooseForegroundOrBackground(isBackground, () -> {
-            try {
-                this.database.put(key, value);
-                this.reactToPutResult(key, value);
-            } catch (DatabaseClientException e) {
-                this.reactToException(e);
-            }
-        });
+        this.runCommand(isBackground,
+                        () -> this.asyncDatabase.putAsync(key, value),
+                        nothing -> this.reactToPutResult(key, value));
     }
 
     private void parseAndRunMultiPut(String arguments, boolean isBackground)
@@ -123,14 +123,9 @@ public abstract class CommandRunner {
         if (pairs.size() == 0)
             throw new CommandException("Wrong number of MULTIPUT arguments");
 
-        chooseForegroundOrBackground(isBackground, () -> {
-            try {
-                this.database.multiPut(pairs);
-                this.reactToMultiPutResult(pairs);
-            } catch (DatabaseClientException e) {
-                this.reactToException(e);
-            }
-        });
+        this.runCommand(isBackground,
+                        () -> this.asyncDatabase.multiPutAsync(pairs),
+                        nothing -> this.reactToMultiPutResult(pairs));
     }
 
     private void parseAndRunMultiGet(String argument, boolean isBackground)
@@ -146,14 +141,9 @@ public abstract class CommandRunner {
             if (!StringUtils.isAlphanumeric(key))
                 throw new CommandException("Non-alphanumeric MULTIGET key: " + key);
 
-        chooseForegroundOrBackground(isBackground, () -> {
-            try {
-                Map<String, byte[]> result = this.database.multiGet(keys);
-                this.reactToMultiGetResult(keys, result);
-            } catch (DatabaseClientException e) {
-                this.reactToException(e);
-            }
-        });
+        this.runCommand(isBackground,
+                        () -> this.asyncDatabase.multiGetAsync(keys),
+                        result -> this.reactToMultiGetResult(keys, result));
     }
 
     private void parseAndRunGetWhen(String arguments, boolean isBackground)
@@ -179,14 +169,9 @@ public abstract class CommandRunner {
         byte[] valueCond =
             this.parseValueArray(remainingArguments.substring(keyCondEnd).trim(), "GETWHEN");
 
-        chooseForegroundOrBackground(isBackground, () -> {
-            try {
-                byte[] value = this.database.getWhen(key, keyCond, valueCond);
-                this.reactToGetWhenResult(key, keyCond, valueCond, value);
-            } catch (DatabaseClientException e) {
-                this.reactToException(e);
-            }
-        });
+        this.runCommand(isBackground,
+                        () -> this.asyncDatabase.getWhenAsync(key, keyCond, valueCond),
+                        value -> this.reactToGetWhenResult(key, keyCond, valueCond, value));
     }
 
     private String[] parseArray(String array, String commandName) throws CommandException {
@@ -216,17 +201,37 @@ public abstract class CommandRunner {
         return ret;
     }
 
-    private void chooseForegroundOrBackground(boolean isBackground, Runnable r) {
+    private <T> void runCommand(boolean                       isBackground,
+                                Supplier<CompletableFuture<T>> request,
+                                Consumer<T>                    reaction) {
+
         if (isBackground) {
-            Thread t = new Thread(r);
-            t.setDaemon(true);
+            // No thread is needed while the request is in flight
             this.reactToBackgrounding();
-            t.start();
+            request.get().whenComplete((result, e) -> {
+                if (e == null)
+                    reaction.accept(result);
+                else
+                    this.reactToException(this.unwrapException(e));
+            });
         } else {
-            r.run();
+            try {
+                reaction.accept(request.get().join());
+            } catch (CompletionException e) {
+                this.reactToException(this.unwrapException(e));
+            }
         }
     }
 
+    private DatabaseClientException unwrapException(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+
+        if (e instanceof DatabaseClientException)
+            return (DatabaseClientException) e;
+        return new DatabaseClientException(e.getClass().getSimpleName() + ": " + e.getMessage());
+    }
+
     protected abstract void reactToBackgrounding();
     protected abstract void reactToException(DatabaseClientException e);
     protected abstract void reactToGetResult(String key, byte[] value);
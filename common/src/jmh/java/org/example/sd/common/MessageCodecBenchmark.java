@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Compares the codec table in Message with the reflection-based lookup that it replaced
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageCodecBenchmark {
+    private static final Map<String, Byte> legacyClassToTypeInteger =
+        Map.ofEntries(Map.entry("GetRequestMessage", (byte) 3),
+                      Map.entry("GetResponseMessage", (byte) 8));
+    private static final Map<Byte, String> legacyTypeIntegerToClass =
+        Map.ofEntries(Map.entry((byte) 3, "GetRequestMessage"),
+                      Map.entry((byte) 8, "GetResponseMessage"));
+
+    @Param({ "GetRequestMessage", "GetResponseMessage" })
+    private String messageType;
+
+    private Message               message;
+    private byte[]                serialized;
+    private ByteArrayOutputStream bytesOut;
+    private DataOutputStream      out;
+
+    @Setup
+    public void setup() throws IOException {
+        if (this.messageType.equals("GetRequestMessage"))
+            this.message = new GetRequestMessage(42, "abcdefgh");
+        else
+            this.message = new GetResponseMessage(42, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+        this.bytesOut = new ByteArrayOutputStream();
+        this.out      = new DataOutputStream(this.bytesOut);
+
+        this.message.serialize(this.out);
+        this.out.flush();
+        this.serialized = this.bytesOut.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        this.bytesOut.reset();
+        this.message.serialize(this.out);
+        this.out.flush();
+        return this.bytesOut.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeLegacy() throws IOException {
+        this.bytesOut.reset();
+        Byte typeInteger = legacyClassToTypeInteger.get(this.message.getClass().getSimpleName());
+        this.out.writeByte(typeInteger);
+        this.message.messageSerialize(this.out);
+        this.out.flush();
+        return this.bytesOut.toByteArray();
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return Message.deserialize(
+            new DataInputStream(new ByteArrayInputStream(this.serialized)));
+    }
+
+    @Benchmark
+    public Message decodeLegacy() throws IOException, ReflectiveOperationException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(this.serialized));
+        in.readInt(); // Frame length
+
+        String   messageClassName  = legacyTypeIntegerToClass.get(in.readByte());
+        Class<?> messageClass      = Class.forName("org.example.sd.common." + messageClassName);
+        Method   deserializeMethod = messageClass.getMethod("messageDeserialize",
+                                                           DataInputStream.class);
+        return (Message) deserializeMethod.invoke(null, in);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Adds delta to a counter (an 8-byte big-endian value, 0 if missing), replying with its new value
+public class AddRequestMessage extends Message {
+    private final int    id;
+    private final String key;
+    private final long   delta;
+
+    public AddRequestMessage(int id, String key, long delta) {
+        this.id    = id;
+        this.key   = key;
+        this.delta = delta;
+    }
+
+    public AddRequestMessage(AddRequestMessage message) {
+        this(message.getId(), message.getKey(), message.getDelta());
+    }
+
+    public static AddRequestMessage messageDeserialize(DataInputStream in) throws IOException {
+        int    id    = in.readInt();
+        String key   = in.readUTF();
+        long   delta = in.readLong();
+        return new AddRequestMessage(id, key, delta);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+        out.writeUTF(this.key);
+        out.writeLong(this.delta);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public long getDelta() {
+        return this.delta;
+    }
+
+    @Override
+    public Object clone() {
+        return new AddRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        AddRequestMessage message = (AddRequestMessage) o;
+        return this.id == message.getId() && this.key.equals(message.getKey()) &&
+            this.delta == message.getDelta();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AddRequestMessage(id=%d, key=%s, delta=%d)",
+                             this.id,
+                             this.key,
+                             this.delta);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Appends bytes to a value (missing values are empty), replying with its new length
+public class AppendRequestMessage extends Message {
+    private final int    id;
+    private final String key;
+    private final byte[] suffix;
+
+    public AppendRequestMessage(int id, String key, byte[] suffix) {
+        this.id     = id;
+        this.key    = key;
+        this.suffix = suffix.clone();
+    }
+
+    public AppendRequestMessage(AppendRequestMessage message) {
+        this(message.getId(), message.getKey(), message.getSuffix());
+    }
+
+    public static AppendRequestMessage messageDeserialize(DataInputStream in) throws IOException {
+        int    id     = in.readInt();
+        String key    = in.readUTF();
+        byte[] suffix = new byte[in.readInt()];
+        in.readFully(suffix);
+
+        return new AppendRequestMessage(id, key, suffix);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+        out.writeUTF(this.key);
+        out.writeInt(this.suffix.length);
+        out.write(this.suffix);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public byte[] getSuffix() {
+        return this.suffix.clone();
+    }
+
+    @Override
+    public Object clone() {
+        return new AppendRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        AppendRequestMessage message = (AppendRequestMessage) o;
+        return this.id == message.getId() && this.key.equals(message.getKey()) &&
+            Arrays.equals(this.suffix, message.getSuffix());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AppendRequestMessage(id=%d, key=%s, suffix=%s)",
+                             this.id,
+                             this.key,
+                             Arrays.toString(this.suffix));
+    }
+}
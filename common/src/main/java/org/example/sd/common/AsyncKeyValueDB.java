@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncKeyValueDB {
+    public CompletableFuture<Void>                putAsync(String key, byte[] value);
+    public CompletableFuture<byte[]>              getAsync(String key);
+    public CompletableFuture<Void>                multiPutAsync(Map<String, byte[]> pairs);
+    public CompletableFuture<Map<String, byte[]>> multiGetAsync(Set<String> keys);
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond);
+
+    // As in KeyValueDB, for databases that support them
+    public default CompletableFuture<Void> putAsync(String key, byte[] value, long ttlMillis) {
+        return AsyncKeyValueDB.unsupported("TTLs");
+    }
+
+    public default CompletableFuture<Void>
+        multiPutAsync(Map<String, byte[]> pairs, long ttlMillis) {
+        return AsyncKeyValueDB.unsupported("TTLs");
+    }
+
+    public default CompletableFuture<Boolean>
+        putIfAsync(String key, byte[] expected, byte[] value) {
+        return AsyncKeyValueDB.unsupported("putIf");
+    }
+
+    public default CompletableFuture<Boolean>
+        multiPutIfAsync(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return AsyncKeyValueDB.unsupported("multiPutIf");
+    }
+
+    public default CompletableFuture<Long> addAsync(String key, long delta) {
+        return AsyncKeyValueDB.unsupported("add");
+    }
+
+    public default CompletableFuture<Integer> appendAsync(String key, byte[] suffix) {
+        return AsyncKeyValueDB.unsupported("append");
+    }
+
+    public default CompletableFuture<byte[]> getRangeAsync(String key, int offset, int length) {
+        return AsyncKeyValueDB.unsupported("getRange");
+    }
+
+    public default CompletableFuture<Integer> putRangeAsync(String key, int offset, byte[] bytes) {
+        return AsyncKeyValueDB.unsupported("putRange");
+    }
+
+    public default CompletableFuture<Boolean> deleteAsync(String key) {
+        return AsyncKeyValueDB.unsupported("delete");
+    }
+
+    public default CompletableFuture<Integer> multiDeleteAsync(Set<String> keys) {
+        return AsyncKeyValueDB.unsupported("multiDelete");
+    }
+
+    private static <T> CompletableFuture<T> unsupported(String operation) {
+        String error = operation + " not supported: choose another backend";
+        return CompletableFuture.failedFuture(new UnsupportedOperationException(error));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+// Runs the operations of a blocking database (e.g.: an in-process backend) on an executor. By
+// default, every operation gets its own virtual thread, so a waiting getWhen is cheap.
+public class AsyncKeyValueDBAdapter implements AsyncKeyValueDB {
+    private final KeyValueDB database;
+    private final Executor   executor;
+
+    public AsyncKeyValueDBAdapter(KeyValueDB database, Executor executor) {
+        this.database = database;
+        this.executor = executor;
+    }
+
+    public AsyncKeyValueDBAdapter(KeyValueDB database) {
+        this(database, Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    public AsyncKeyValueDBAdapter(AsyncKeyValueDBAdapter adapter) {
+        this(adapter.getDatabase(), adapter.getExecutor());
+    }
+
+    public CompletableFuture<Void> putAsync(String key, byte[] value) {
+        return CompletableFuture.runAsync(() -> this.database.put(key, value), this.executor);
+    }
+
+    public CompletableFuture<byte[]> getAsync(String key) {
+        return CompletableFuture.supplyAsync(() -> this.database.get(key), this.executor);
+    }
+
+    public CompletableFuture<Void> multiPutAsync(Map<String, byte[]> pairs) {
+        return CompletableFuture.runAsync(() -> this.database.multiPut(pairs), this.executor);
+    }
+
+    public CompletableFuture<Map<String, byte[]>> multiGetAsync(Set<String> keys) {
+        return CompletableFuture.supplyAsync(() -> this.database.multiGet(keys), this.executor);
+    }
+
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond) {
+        return CompletableFuture.supplyAsync(() -> this.database.getWhen(key, keyCond, valueCond),
+                                             this.executor);
+    }
+
+    public CompletableFuture<Void> putAsync(String key, byte[] value, long ttlMillis) {
+        return CompletableFuture.runAsync(() -> this.database.put(key, value, ttlMillis),
+                                          this.executor);
+    }
+
+    public CompletableFuture<Void> multiPutAsync(Map<String, byte[]> pairs, long ttlMillis) {
+        return CompletableFuture.runAsync(() -> this.database.multiPut(pairs, ttlMillis),
+                                          this.executor);
+    }
+
+    public CompletableFuture<Boolean> putIfAsync(String key, byte[] expected, byte[] value) {
+        return CompletableFuture.supplyAsync(() -> this.database.putIf(key, expected, value),
+                                             this.executor);
+    }
+
+    public CompletableFuture<Boolean>
+        multiPutIfAsync(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return CompletableFuture.supplyAsync(() -> this.database.multiPutIf(preconditions, pairs),
+                                             this.executor);
+    }
+
+    public CompletableFuture<Long> addAsync(String key, long delta) {
+        return CompletableFuture.supplyAsync(() -> this.database.add(key, delta), this.executor);
+    }
+
+    public CompletableFuture<Integer> appendAsync(String key, byte[] suffix) {
+        return CompletableFuture.supplyAsync(() -> this.database.append(key, suffix),
+                                             this.executor);
+    }
+
+    public CompletableFuture<byte[]> getRangeAsync(String key, int offset, int length) {
+        return CompletableFuture.supplyAsync(() -> this.database.getRange(key, offset, length),
+                                             this.executor);
+    }
+
+    public CompletableFuture<Integer> putRangeAsync(String key, int offset, byte[] bytes) {
+        return CompletableFuture.supplyAsync(() -> this.database.putRange(key, offset, bytes),
+                                             this.executor);
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(String key) {
+        return CompletableFuture.supplyAsync(() -> this.database.delete(key), this.executor);
+    }
+
+    public CompletableFuture<Integer> multiDeleteAsync(Set<String> keys) {
+        return CompletableFuture.supplyAsync(() -> this.database.multiDelete(keys), this.executor);
+    }
+
+    public KeyValueDB getDatabase() {
+        return this.database;
+    }
+
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    @Override
+    public Object clone() {
+        return new AsyncKeyValueDBAdapter(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        // Check if the database is the same (not equal)
+        AsyncKeyValueDBAdapter adapter = (AsyncKeyValueDBAdapter) o;
+        return this.database == adapter.getDatabase() && this.executor == adapter.getExecutor();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AsyncKeyValueDBAdapter(%s)", this.database.toString());
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Groups concurrent single-key gets and puts into MultiGet and MultiPut requests. A batch is sent
+// when it reaches maxBatchSize keys, or windowMicros after its first operation.
+//
+// Gets of keys with a pending put are answered from the batch. Other operations first flush the
+// pending puts, and are only sent once those are applied, so that they can't overtake them.
+//
+// Instances are created with start(), which also starts the thread that sends expired batches,
+// and must be closed to stop it.
+public class BatchingDatabaseClient implements KeyValueDB, AsyncKeyValueDB, AutoCloseable {
+    private record PutBatch(Map<String, byte[]> pairs, List<CompletableFuture<Void>> futures) {}
+
+    private final AsyncKeyValueDB database;
+    private final long            windowNanos;
+    private final int             maxBatchSize;
+
+    private final Lock      lock;
+    private final Condition batchStarted;
+
+    private Map<String, List<CompletableFuture<byte[]>>> pendingGets;
+    private Map<String, byte[]>                          pendingPuts;
+    private List<CompletableFuture<Void>>                pendingPutFutures;
+    private long                                         batchStart;
+    private boolean                                      closed;
+
+    private BatchingDatabaseClient(AsyncKeyValueDB database, long windowMicros, int maxBatchSize) {
+        this.database     = database;
+        this.windowNanos  = windowMicros * 1000;
+        this.maxBatchSize = maxBatchSize;
+
+        this.lock         = new ReentrantLock();
+        this.batchStarted = this.lock.newCondition();
+
+        this.pendingGets       = new HashMap<String, List<CompletableFuture<byte[]>>>();
+        this.pendingPuts       = new HashMap<String, byte[]>();
+        this.pendingPutFutures = new ArrayList<CompletableFuture<Void>>();
+        this.batchStart        = 0;
+        this.closed            = false;
+    }
+
+    public static BatchingDatabaseClient
+        start(AsyncKeyValueDB database, long windowMicros, int maxBatchSize) {
+        BatchingDatabaseClient client =
+            new BatchingDatabaseClient(database, windowMicros, maxBatchSize);
+
+        Thread flusher = new Thread(() -> client.flusherThreadLoop());
+        flusher.setDaemon(true);
+        flusher.start();
+        return client;
+    }
+
+    // Sends the pending batches, stops the flusher thread, and closes the underlying database
+    // (if it can be closed) once those batches are done
+    public void close() {
+        Map<String, List<CompletableFuture<byte[]>>> gets;
+        PutBatch                                     puts;
+
+        this.lock.lock();
+        try {
+            if (this.closed)
+                return;
+
+            this.closed = true;
+            gets        = this.takeGets();
+            puts        = this.takePuts();
+            this.batchStarted.signal();
+        } finally {
+            this.lock.unlock();
+        }
+
+        CompletableFuture.allOf(this.sendGets(gets), this.sendPuts(puts))
+            .exceptionally(e -> null)
+            .join();
+
+        if (this.database instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) this.database).close();
+            } catch (Exception e) {
+                throw new DatabaseClientException(e.getMessage());
+            }
+        }
+    }
+
+    public void put(String key, byte[] value) {
+        this.waitFor(this.putAsync(key, value));
+    }
+
+    public byte[] get(String key) {
+        return this.waitFor(this.getAsync(key));
+    }
+
+    public void multiPut(Map<String, byte[]> pairs) {
+        this.waitFor(this.multiPutAsync(pairs));
+    }
+
+    public Map<String, byte[]> multiGet(Set<String> keys) {
+        return this.waitFor(this.multiGetAsync(keys));
+    }
+
+    public byte[] getWhen(String key, String keyCond, byte[] valueCond) {
+        return this.waitFor(this.getWhenAsync(key, keyCond, valueCond));
+    }
+
+    public void put(String key, byte[] value, long ttlMillis) {
+        this.waitFor(this.putAsync(key, value, ttlMillis));
+    }
+
+    public void multiPut(Map<String, byte[]> pairs, long ttlMillis) {
+        this.waitFor(this.multiPutAsync(pairs, ttlMillis));
+    }
+
+    public boolean putIf(String key, byte[] expected, byte[] value) {
+        return this.waitFor(this.putIfAsync(key, expected, value));
+    }
+
+    public boolean multiPutIf(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return this.waitFor(this.multiPutIfAsync(preconditions, pairs));
+    }
+
+    public long add(String key, long delta) {
+        return this.waitFor(this.addAsync(key, delta));
+    }
+
+    public int append(String key, byte[] suffix) {
+        return this.waitFor(this.appendAsync(key, suffix));
+    }
+
+    public byte[] getRange(String key, int offset, int length) {
+        return this.waitFor(this.getRangeAsync(key, offset, length));
+    }
+
+    public int putRange(String key, int offset, byte[] bytes) {
+        return this.waitFor(this.putRangeAsync(key, offset, bytes));
+    }
+
+    public boolean delete(String key) {
+        return this.waitFor(this.deleteAsync(key));
+    }
+
+    public int multiDelete(Set<String> keys) {
+        return this.waitFor(this.multiDeleteAsync(keys));
+    }
+
+    public CompletableFuture<Void> putAsync(String key, byte[] value) {
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        PutBatch                batch  = null;
+
+        this.lock.lock();
+        try {
+            if (this.closed)
+                return BatchingDatabaseClient.closedFuture();
+
+            this.startBatchIfNeeded();
+            this.pendingPuts.put(key, value.clone()); // Concurrent puts: any order is valid
+            this.pendingPutFutures.add(future);
+
+            if (this.pendingPuts.size() >= this.maxBatchSize)
+                batch = this.takePuts();
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.sendPuts(batch);
+        return future;
+    }
+
+    public CompletableFuture<byte[]> getAsync(String key) {
+        CompletableFuture<byte[]>                    future = new CompletableFuture<byte[]>();
+        Map<String, List<CompletableFuture<byte[]>>> batch  = null;
+
+        this.lock.lock();
+        try {
+            if (this.closed)
+                return BatchingDatabaseClient.closedFuture();
+
+            byte[] pendingValue = this.pendingPuts.get(key);
+            if (pendingValue != null)
+                return CompletableFuture.completedFuture(pendingValue.clone());
+
+            this.startBatchIfNeeded();
+            this.pendingGets.computeIfAbsent(key, k -> new ArrayList<CompletableFuture<byte[]>>())
+                .add(future);
+
+            if (this.pendingGets.size() >= this.maxBatchSize)
+                batch = this.takeGets();
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.sendGets(batch);
+        return future;
+    }
+
+    // Operations on multiple keys are already batched
+    public CompletableFuture<Void> multiPutAsync(Map<String, byte[]> pairs) {
+        return this.afterPuts(() -> this.database.multiPutAsync(pairs));
+    }
+
+    public CompletableFuture<Map<String, byte[]>> multiGetAsync(Set<String> keys) {
+        return this.afterPuts(() -> this.database.multiGetAsync(keys));
+    }
+
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond) {
+        return this.afterPuts(() -> this.database.getWhenAsync(key, keyCond, valueCond));
+    }
+
+    // Puts with a TTL aren't batched, as a MultiPut can't carry a TTL per key
+    public CompletableFuture<Void> putAsync(String key, byte[] value, long ttlMillis) {
+        return this.afterPuts(() -> this.database.putAsync(key, value, ttlMillis));
+    }
+
+    public CompletableFuture<Void> multiPutAsync(Map<String, byte[]> pairs, long ttlMillis) {
+        return this.afterPuts(() -> this.database.multiPutAsync(pairs, ttlMillis));
+    }
+
+    public CompletableFuture<Boolean> putIfAsync(String key, byte[] expected, byte[] value) {
+        return this.afterPuts(() -> this.database.putIfAsync(key, expected, value));
+    }
+
+    public CompletableFuture<Boolean>
+        multiPutIfAsync(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return this.afterPuts(() -> this.database.multiPutIfAsync(preconditions, pairs));
+    }
+
+    public CompletableFuture<Long> addAsync(String key, long delta) {
+        return this.afterPuts(() -> this.database.addAsync(key, delta));
+    }
+
+    public CompletableFuture<Integer> appendAsync(String key, byte[] suffix) {
+        return this.afterPuts(() -> this.database.appendAsync(key, suffix));
+    }
+
+    public CompletableFuture<byte[]> getRangeAsync(String key, int offset, int length) {
+        return this.afterPuts(() -> this.database.getRangeAsync(key, offset, length));
+    }
+
+    public CompletableFuture<Integer> putRangeAsync(String key, int offset, byte[] bytes) {
+        return this.afterPuts(() -> this.database.putRangeAsync(key, offset, bytes));
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(String key) {
+        return this.afterPuts(() -> this.database.deleteAsync(key));
+    }
+
+    public CompletableFuture<Integer> multiDeleteAsync(Set<String> keys) {
+        return this.afterPuts(() -> this.database.multiDeleteAsync(keys));
+    }
+
+    // Sends the pending puts (if any), and then the operation, once they're done (even if they
+    // failed). Cancelling the returned future cancels the operation's.
+    private <T> CompletableFuture<T> afterPuts(Supplier<CompletableFuture<T>> operation) {
+        PutBatch batch;
+        this.lock.lock();
+        try {
+            if (this.closed)
+                return BatchingDatabaseClient.closedFuture();
+
+            batch = this.takePuts();
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (batch == null)
+            return operation.get();
+
+        CompletableFuture<T> ret = new CompletableFuture<T>();
+        this.sendPuts(batch).whenComplete((nothing, putError) -> {
+            if (ret.isDone())
+                return; // Cancelled
+
+            CompletableFuture<T> request;
+            try {
+                request = operation.get();
+            } catch (RuntimeException e) {
+                ret.completeExceptionally(e);
+                return;
+            }
+
+            ret.whenComplete((value, e) -> {
+                if (e instanceof CancellationException)
+                    request.cancel(false);
+            });
+            request.whenComplete((value, e) -> {
+                if (e != null)
+                    ret.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                else
+                    ret.complete(value);
+            });
+        });
+        return ret;
+    }
+
+    private void startBatchIfNeeded() {
+        if (this.pendingGets.isEmpty() && this.pendingPuts.isEmpty()) {
+            this.batchStart = System.nanoTime();
+            this.batchStarted.signal();
+        }
+    }
+
+    private void flusherThreadLoop() {
+        while (true) {
+            Map<String, List<CompletableFuture<byte[]>>> gets = null;
+            PutBatch                                     puts = null;
+
+            this.lock.lock();
+            try {
+                while (!this.closed && this.pendingGets.isEmpty() && this.pendingPuts.isEmpty())
+                    this.batchStarted.awaitUninterruptibly();
+
+                if (this.closed)
+                    return; // close() already sent the pending batches
+
+                long remaining = this.batchStart + this.windowNanos - System.nanoTime();
+                if (remaining > 0) {
+                    try {
+                        this.batchStarted.awaitNanos(remaining);
+                    } catch (InterruptedException e) {}
+                    continue; // The batch may have been sent in the meantime
+                }
+
+                gets = this.takeGets();
+                puts = this.takePuts();
+            } finally {
+                this.lock.unlock();
+            }
+
+            this.sendGets(gets);
+            this.sendPuts(puts);
+        }
+    }
+
+    // Must be called with the lock held
+    private Map<String, List<CompletableFuture<byte[]>>> takeGets() {
+        if (this.pendingGets.isEmpty())
+            return null;
+
+        Map<String, List<CompletableFuture<byte[]>>> gets = this.pendingGets;
+        this.pendingGets = new HashMap<String, List<CompletableFuture<byte[]>>>();
+        return gets;
+    }
+
+    // Must be called with the lock held
+    private PutBatch takePuts() {
+        if (this.pendingPuts.isEmpty())
+            return null;
+
+        PutBatch puts          = new PutBatch(this.pendingPuts, this.pendingPutFutures);
+        this.pendingPuts       = new HashMap<String, byte[]>();
+        this.pendingPutFutures = new ArrayList<CompletableFuture<Void>>();
+        return puts;
+    }
+
+    // Returns when the gets are answered
+    private CompletableFuture<Void> sendGets(Map<String, List<CompletableFuture<byte[]>>> gets) {
+        if (gets == null)
+            return CompletableFuture.completedFuture(null);
+
+        if (gets.size() == 1) {
+            Map.Entry<String, List<CompletableFuture<byte[]>>> get =
+                gets.entrySet().iterator().next();
+
+            return this.database.getAsync(get.getKey()).whenComplete((value, e) -> {
+                this.completeGets(get.getValue(), value, e);
+            }).thenApply(value -> null);
+        } else {
+            return this.database.multiGetAsync(gets.keySet()).whenComplete((values, e) -> {
+                for (Map.Entry<String, List<CompletableFuture<byte[]>>> get : gets.entrySet())
+                    this.completeGets(get.getValue(),
+                                      values == null ? null : values.get(get.getKey()),
+                                      e);
+            }).thenApply(values -> null);
+        }
+    }
+
+    private void completeGets(List<CompletableFuture<byte[]>> futures, byte[] value, Throwable e) {
+        for (CompletableFuture<byte[]> future : futures) {
+            if (e != null)
+                future.completeExceptionally(e);
+            else
+                future.complete(value == null ? null : value.clone());
+        }
+    }
+
+    // Returns the request that sends the batch
+    private CompletableFuture<Void> sendPuts(PutBatch batch) {
+        if (batch == null)
+            return CompletableFuture.completedFuture(null);
+
+        Map<String, byte[]>     puts = batch.pairs();
+        CompletableFuture<Void> request;
+        if (puts.size() == 1) {
+            Map.Entry<String, byte[]> put = puts.entrySet().iterator().next();
+            request                       = this.database.putAsync(put.getKey(), put.getValue());
+        } else {
+            request = this.database.multiPutAsync(puts);
+        }
+
+        request.whenComplete((nothing, e) -> {
+            for (CompletableFuture<Void> future : batch.futures()) {
+                if (e != null)
+                    future.completeExceptionally(e);
+                else
+                    future.complete(null);
+            }
+        });
+        return request;
+    }
+
+    private static <T> CompletableFuture<T> closedFuture() {
+        return CompletableFuture.failedFuture(new DatabaseClientException("Client closed"));
+    }
+
+    private <T> T waitFor(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DatabaseClientException)
+                throw (DatabaseClientException) e.getCause();
+            throw new DatabaseClientException(e.getMessage());
+        }
+    }
+
+    public AsyncKeyValueDB getDatabase() {
+        return this.database;
+    }
+
+    public long getWindowMicros() {
+        return this.windowNanos / 1000;
+    }
+
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    @Override
+    public Object clone() {
+        return this; // Just like DatabaseClient, a connection can't be cloned
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchingDatabaseClient(database=%s, windowMicros=%d, maxBatchSize=%d)",
+                             this.database.toString(),
+                             this.getWindowMicros(),
+                             this.maxBatchSize);
+    }
+}
@@ -17,6 +17,8 @@
 package org.example.sd.common;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -28,12 +30,19 @@ public class Buffer {
     private final Lock      lock;
     private final Condition condition;
     private boolean         isShutdown;
+    private final Runnable  messageAvailableListener;
 
     public Buffer() {
-        this.buffer     = new ArrayDeque<Message>();
-        this.lock       = new ReentrantLock();
-        this.condition  = this.lock.newCondition();
-        this.isShutdown = false;
+        this((Runnable) null);
+    }
+
+    // The listener is called (outside the lock) when a message is sent to an empty buffer
+    public Buffer(Runnable messageAvailableListener) {
+        this.buffer                   = new ArrayDeque<Message>();
+        this.lock                     = new ReentrantLock();
+        this.condition                = this.lock.newCondition();
+        this.isShutdown               = false;
+        this.messageAvailableListener = messageAvailableListener;
     }
 
     public Buffer(Buffer buffer) {
@@ -42,20 +51,23 @@ public class Buffer {
     }
 
     public void send(Message message) throws BufferException {
+        boolean wasEmpty;
+
         this.lock.lock();
         try {
             if (this.isShutdown)
                 throw new BufferException("Buffer was shutdown");
 
-            if (this.buffer.isEmpty()) {
-                this.buffer.add(message);
+            wasEmpty = this.buffer.isEmpty();
+            this.buffer.add(message);
+            if (wasEmpty)
                 this.condition.signal();
-            } else {
-                this.buffer.add(message);
-            }
         } finally {
             this.lock.unlock();
         }
+
+        if (wasEmpty && this.messageAvailableListener != null)
+            this.messageAvailableListener.run();
     }
 
     public Message receive() throws BufferException {
@@ -73,6 +85,32 @@ public class Buffer {
         }
     }
 
+    public List<Message> receiveAll() throws BufferException {
+        this.lock.lock();
+        try {
+            while (!this.isShutdown && this.buffer.isEmpty())
+                this.condition.awaitUninterruptibly();
+
+            return this.tryReceiveAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public List<Message> tryReceiveAll() throws BufferException {
+        this.lock.lock();
+        try {
+            if (this.isShutdown)
+                throw new BufferException("Buffer was shutdown");
+
+            List<Message> ret = new ArrayList<Message>(this.buffer);
+            this.buffer.clear();
+            return ret;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
     public void shutdown() {
         this.lock.lock();
         try {
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Reply to a putIf or multiPutIf, telling whether its preconditions held (and it was applied)
+public class ConditionalPutResponseMessage extends Message implements ResponseMessage {
+    private final int     requestId;
+    private final boolean applied;
+
+    public ConditionalPutResponseMessage(int requestId, boolean applied) {
+        this.requestId = requestId;
+        this.applied   = applied;
+    }
+
+    public ConditionalPutResponseMessage(ConditionalPutResponseMessage message) {
+        this(message.getRequestId(), message.isApplied());
+    }
+
+    public static ConditionalPutResponseMessage messageDeserialize(DataInputStream in)
+        throws IOException {
+
+        int     requestId = in.readInt();
+        boolean applied   = in.readBoolean();
+        return new ConditionalPutResponseMessage(requestId, applied);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.requestId);
+        out.writeBoolean(this.applied);
+    }
+
+    public int getRequestId() {
+        return this.requestId;
+    }
+
+    public boolean isApplied() {
+        return this.applied;
+    }
+
+    @Override
+    public Object clone() {
+        return new ConditionalPutResponseMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        ConditionalPutResponseMessage message = (ConditionalPutResponseMessage) o;
+        return this.requestId == message.getRequestId() && this.applied == message.isApplied();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConditionalPutResponseMessage(requestId=%d, applied=%b)",
+                             this.requestId,
+                             this.applied);
+    }
+}
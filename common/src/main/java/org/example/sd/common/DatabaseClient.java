@@ -22,42 +22,49 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
-public class DatabaseClient implements KeyValueDB {
+public class DatabaseClient implements KeyValueDB, AsyncKeyValueDB, AutoCloseable {
     private Socket           socket;
     private DataInputStream  in;
     private DataOutputStream out;
-    private boolean          brokenConnection;
-    private boolean          authenticated;
+    private volatile boolean brokenConnection;
+    private volatile boolean authenticated;
 
-    private Lock        lock;
-    private Condition[] conditions;
+    // Only guards the output stream: requests in flight are tracked without any lock
+    private Lock          writeLock;
+    private AtomicInteger waitingWriters;
 
-    private int                   nextId;
-    private Map<Integer, Message> replies;
-    private int                   authenticationId;
+    private AtomicInteger                                           nextId;
+    private ConcurrentHashMap<Integer, CompletableFuture<Message>>  pendingRequests;
+    private ConcurrentHashMap<Integer, Consumer<KeyChangedMessage>> subscriptions;
+    private volatile int                                            authenticationId;
 
-    public DatabaseClient(String address, int port, int nConditions) throws IOException {
+    public DatabaseClient(String address, int port) throws IOException {
         this.socket = new Socket(address, port);
         this.in     = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
         this.out    = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
         this.brokenConnection = false;
         this.authenticated    = false;
 
-        this.lock       = new ReentrantLock();
-        this.conditions = new Condition[nConditions];
-        for (int i = 0; i < nConditions; ++i)
-            this.conditions[i] = this.lock.newCondition();
+        this.writeLock      = new ReentrantLock();
+        this.waitingWriters = new AtomicInteger();
 
-        this.nextId           = 1;
-        this.replies          = new HashMap<Integer, Message>();
+        this.nextId           = new AtomicInteger(1);
+        this.pendingRequests  = new ConcurrentHashMap<Integer, CompletableFuture<Message>>();
+        this.subscriptions    = new ConcurrentHashMap<Integer, Consumer<KeyChangedMessage>>();
         this.authenticationId = 0;
 
         Thread connectionReader = new Thread(() -> connectionReaderThreadLoop());
@@ -67,30 +74,19 @@ public class DatabaseClient implements KeyValueDB {
 
     // UNSAFE FOR MANY *EXTERNAL* THREADS TO USE AT ONCE
     public RegistrationAuthenticationStatus authenticate(String username, String password) {
-        this.lock.lock();
-        try {
-            if (this.authenticated)
-                throw new DatabaseClientException("Already authenticated");
-        } finally {
-            this.lock.unlock();
-        }
+        if (this.authenticated)
+            throw new DatabaseClientException("Already authenticated");
 
-        Message reply = this.sendAndWaitForReply(
-            i -> new RegisterAuthenticateRequestMessage(username, password));
+        Message reply = this.waitFor(
+            this.sendRequest(i -> new RegisterAuthenticateRequestMessage(username, password)));
 
         if (reply instanceof RegisterAuthenticateResponseMessage) {
             RegistrationAuthenticationStatus status =
                 ((RegisterAuthenticateResponseMessage) reply).getStatus();
 
             if (status == RegistrationAuthenticationStatus.SUCCESS ||
-                status == RegistrationAuthenticationStatus.SUCCESS_NEW_USER) {
-                this.lock.lock();
-                try {
-                    this.authenticated = true;
-                } finally {
-                    this.lock.unlock();
-                }
-            }
+                status == RegistrationAuthenticationStatus.SUCCESS_NEW_USER)
+                this.authenticated = true;
 
             return status;
         }
@@ -99,79 +95,396 @@ public class DatabaseClient implements KeyValueDB {
     }
 
     public void put(String key, byte[] value) {
-        this.sendAndWaitForReply(i -> new PutRequestMessage(i, key, value));
+        this.waitFor(this.putAsync(key, value));
+    }
+
+    public void put(String key, byte[] value, long ttlMillis) {
+        this.waitFor(this.putAsync(key, value, ttlMillis));
     }
 
     public byte[] get(String key) {
-        Message reply = this.sendAndWaitForReply(i -> new GetRequestMessage(i, key));
+        return this.waitFor(this.getAsync(key));
+    }
+
+    public void multiPut(Map<String, byte[]> pairs) {
+        this.waitFor(this.multiPutAsync(pairs));
+    }
+
+    public void multiPut(Map<String, byte[]> pairs, long ttlMillis) {
+        this.waitFor(this.multiPutAsync(pairs, ttlMillis));
+    }
+
+    public Map<String, byte[]> multiGet(Set<String> keys) {
+        return this.waitFor(this.multiGetAsync(keys));
+    }
+
+    public byte[] getWhen(String key, String keyCond, byte[] valueCond) {
+        return this.waitFor(this.getWhenAsync(key, keyCond, valueCond));
+    }
+
+    public boolean putIf(String key, byte[] expected, byte[] value) {
+        return this.waitFor(this.putIfAsync(key, expected, value));
+    }
+
+    public boolean multiPutIf(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return this.waitFor(this.multiPutIfAsync(preconditions, pairs));
+    }
+
+    public long add(String key, long delta) {
+        return this.waitFor(this.addAsync(key, delta));
+    }
+
+    public long increment(String key) {
+        return this.add(key, 1);
+    }
+
+    public int append(String key, byte[] suffix) {
+        return this.waitFor(this.appendAsync(key, suffix));
+    }
+
+    public byte[] getRange(String key, int offset, int length) {
+        return this.waitFor(this.getRangeAsync(key, offset, length));
+    }
+
+    public int putRange(String key, int offset, byte[] bytes) {
+        return this.waitFor(this.putRangeAsync(key, offset, bytes));
+    }
+
+    public boolean delete(String key) {
+        return this.waitFor(this.deleteAsync(key));
+    }
+
+    public int multiDelete(Set<String> keys) {
+        return this.waitFor(this.multiDeleteAsync(keys));
+    }
+
+    // Throws GetWhenTimeoutException if the condition doesn't hold within timeoutMillis
+    public byte[] getWhen(String key, String keyCond, byte[] valueCond, long timeoutMillis) {
+        return this.waitFor(this.getWhenAsync(key, keyCond, valueCond, timeoutMillis));
+    }
+
+    public Map<String, byte[]>
+        multiGetWhen(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+        return this.waitFor(this.multiGetWhenAsync(keys, conditions, allOf, 0));
+    }
+
+    public Map<String, byte[]> multiGetWhen(Set<String>         keys,
+                                            Map<String, byte[]> conditions,
+                                            boolean             allOf,
+                                            long                timeoutMillis) {
+        return this.waitFor(this.multiGetWhenAsync(keys, conditions, allOf, timeoutMillis));
+    }
+
+    public Subscription subscribe(Set<String> keys, Consumer<KeyChangedMessage> listener) {
+        return this.waitFor(this.subscribeAsync(keys, listener));
+    }
+
+    // The listener is called from the connection's reader thread (so it mustn't block), for every
+    // change after the subscription's initial values
+    public CompletableFuture<Subscription>
+        subscribeAsync(Set<String> keys, Consumer<KeyChangedMessage> listener) {
+
+        DatabaseClient.checkKeys(keys);
+        int[]                           subscriptionId = new int[1];
+        CompletableFuture<Subscription> ret            = this.sendRequest(i -> {
+            subscriptionId[0] = i;
+            this.subscriptions.put(i, listener);
+            return new SubscribeRequestMessage(i, keys);
+        }).thenApply(reply -> {
+            if (reply instanceof MultiGetResponseMessage)
+                return new Subscription(subscriptionId[0],
+                                        keys,
+                                        ((MultiGetResponseMessage) reply).getMap());
+            else if (reply instanceof ErrorResponseMessage)
+                throw new DatabaseClientException(((ErrorResponseMessage) reply).getError());
+
+            throw new DatabaseClientException("Subscription refused by server");
+        });
+
+        ret.whenComplete((subscription, e) -> {
+            if (e != null)
+                this.subscriptions.remove(subscriptionId[0]);
+        });
+        return ret;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        if (this.subscriptions.remove(subscription.getId()) != null)
+            this.sendMessage(new UnsubscribeRequestMessage(subscription.getId()));
+    }
+
+    public CompletableFuture<Void> putAsync(String key, byte[] value) {
+        DatabaseClient.checkPair(key, value);
+        return this.sendRequest(i -> new PutRequestMessage(i, key, value))
+            .thenApply(reply -> null);
+    }
+
+    public CompletableFuture<Void> putAsync(String key, byte[] value, long ttlMillis) {
+        DatabaseClient.checkPair(key, value);
+        return this.sendRequest(i -> new ExpiringPutRequestMessage(i, key, value, ttlMillis))
+            .thenApply(reply -> this.checkPutResponse(reply));
+    }
+
+    public CompletableFuture<byte[]> getAsync(String key) {
+        Objects.requireNonNull(key, "key");
+        return this.sendRequest(i -> new GetRequestMessage(i, key))
+            .thenApply(reply -> this.getResponseValue(reply));
+    }
+
+    public CompletableFuture<Void> multiPutAsync(Map<String, byte[]> pairs) {
+        DatabaseClient.checkPairs(pairs);
+        return this.sendRequest(i -> new MultiPutRequestMessage(i, pairs))
+            .thenApply(reply -> null);
+    }
+
+    public CompletableFuture<Void> multiPutAsync(Map<String, byte[]> pairs, long ttlMillis) {
+        DatabaseClient.checkPairs(pairs);
+        return this.sendRequest(i -> new ExpiringMultiPutRequestMessage(i, pairs, ttlMillis))
+            .thenApply(reply -> this.checkPutResponse(reply));
+    }
+
+    public CompletableFuture<Map<String, byte[]>> multiGetAsync(Set<String> keys) {
+        DatabaseClient.checkKeys(keys);
+        return this.sendRequest(i -> new MultiGetRequestMessage(i, keys)).thenApply(reply -> {
+            if (reply instanceof MultiGetResponseMessage) {
+                MultiGetResponseMessage multiGetReply = (MultiGetResponseMessage) reply;
+                return multiGetReply.getMap();
+            }
+
+            throw new DatabaseClientException("Wrong response type from server");
+        });
+    }
+
+    public CompletableFuture<Boolean> putIfAsync(String key, byte[] expected, byte[] value) {
+        DatabaseClient.checkPair(key, value);
+        return this.sendRequest(i -> new PutIfRequestMessage(i, key, expected, value))
+            .thenApply(reply -> this.isApplied(reply));
+    }
+
+    public CompletableFuture<Boolean>
+        multiPutIfAsync(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+
+        DatabaseClient.checkKeys(preconditions.keySet());
+        DatabaseClient.checkPairs(pairs);
+        return this.sendRequest(i -> new MultiPutIfRequestMessage(i, preconditions, pairs))
+            .thenApply(reply -> this.isApplied(reply));
+    }
+
+    public CompletableFuture<Long> addAsync(String key, long delta) {
+        Objects.requireNonNull(key, "key");
+        return this.sendRequest(i -> new AddRequestMessage(i, key, delta))
+            .thenApply(reply -> this.getLongResponse(reply));
+    }
+
+    public CompletableFuture<Integer> appendAsync(String key, byte[] suffix) {
+        DatabaseClient.checkPair(key, suffix);
+        return this.sendRequest(i -> new AppendRequestMessage(i, key, suffix))
+            .thenApply(reply -> (int) this.getLongResponse(reply));
+    }
+
+    public CompletableFuture<byte[]> getRangeAsync(String key, int offset, int length) {
+        Objects.requireNonNull(key, "key");
+        return this.sendRequest(i -> new GetRangeRequestMessage(i, key, offset, length))
+            .thenApply(reply -> this.getResponseValue(reply));
+    }
+
+    public CompletableFuture<Integer> putRangeAsync(String key, int offset, byte[] bytes) {
+        DatabaseClient.checkPair(key, bytes);
+        return this.sendRequest(i -> new PutRangeRequestMessage(i, key, offset, bytes))
+            .thenApply(reply -> (int) this.getLongResponse(reply));
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(String key) {
+        Objects.requireNonNull(key, "key");
+        return this.sendRequest(i -> new DeleteRequestMessage(i, key))
+            .thenApply(reply -> this.getLongResponse(reply) > 0);
+    }
+
+    public CompletableFuture<Integer> multiDeleteAsync(Set<String> keys) {
+        DatabaseClient.checkKeys(keys);
+        return this.sendRequest(i -> new MultiDeleteRequestMessage(i, keys))
+            .thenApply(reply -> (int) this.getLongResponse(reply));
+    }
+
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond) {
+        return this.getWhenAsync(key, keyCond, valueCond, 0);
+    }
+
+    // Cancelling the returned future also cancels the request in the server
+    public CompletableFuture<byte[]>
+        getWhenAsync(String key, String keyCond, byte[] valueCond, long timeoutMillis) {
+
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(keyCond, "keyCond");
+        int[]                     requestId = new int[1];
+        CompletableFuture<byte[]> ret       = this.sendRequest(i -> {
+            requestId[0] = i;
+            return new GetWhenRequestMessage(i, key, keyCond, valueCond, timeoutMillis);
+        }).thenApply(reply -> this.getResponseValue(reply));
+
+        ret.whenComplete((value, e) -> {
+            if (e instanceof CancellationException)
+                this.sendMessage(new CancelRequestMessage(requestId[0]));
+        });
+        return ret;
+    }
+
+    // Cancelling the returned future also cancels the request in the server
+    public CompletableFuture<Map<String, byte[]>>
+        multiGetWhenAsync(Set<String>         keys,
+                          Map<String, byte[]> conditions,
+                          boolean             allOf,
+                          long                timeoutMillis) {
+
+        DatabaseClient.checkKeys(keys);
+        DatabaseClient.checkKeys(conditions.keySet());
+        int[]                                  requestId = new int[1];
+        CompletableFuture<Map<String, byte[]>> ret       = this.sendRequest(i -> {
+            requestId[0] = i;
+            return new MultiGetWhenRequestMessage(i, keys, conditions, allOf, timeoutMillis);
+        }).thenApply(reply -> {
+            if (reply instanceof MultiGetResponseMessage)
+                return ((MultiGetResponseMessage) reply).getMap();
+
+            this.getResponseValue(reply); // Throws the right exception for aborted requests
+            throw new DatabaseClientException("Wrong response type from server");
+        });
+
+        ret.whenComplete((value, e) -> {
+            if (e instanceof CancellationException)
+                this.sendMessage(new CancelRequestMessage(requestId[0]));
+        });
+        return ret;
+    }
+
+    private byte[] getResponseValue(Message reply) {
         if (reply instanceof GetResponseMessage) {
             GetResponseMessage getReply = (GetResponseMessage) reply;
             return getReply.getValue();
+        } else if (reply instanceof GetWhenAbortedResponseMessage) {
+            if (((GetWhenAbortedResponseMessage) reply).isTimedOut())
+                throw new GetWhenTimeoutException("getWhen timed out");
+            throw new CancellationException("getWhen cancelled");
+        } else if (reply instanceof ErrorResponseMessage) {
+            throw new DatabaseClientException(((ErrorResponseMessage) reply).getError());
         }
 
         throw new DatabaseClientException("Wrong response type from server");
     }
 
-    public void multiPut(Map<String, byte[]> pairs) {
-        this.sendAndWaitForReply(i -> new MultiPutRequestMessage(i, pairs));
+    private Void checkPutResponse(Message reply) {
+        if (reply instanceof PutResponseMessage)
+            return null;
+        else if (reply instanceof ErrorResponseMessage)
+            throw new DatabaseClientException(((ErrorResponseMessage) reply).getError());
+
+        throw new DatabaseClientException("Wrong response type from server");
     }
 
-    public Map<String, byte[]> multiGet(Set<String> keys) {
-        Message reply = this.sendAndWaitForReply(i -> new MultiGetRequestMessage(i, keys));
-        if (reply instanceof MultiGetResponseMessage) {
-            MultiGetResponseMessage multiGetReply = (MultiGetResponseMessage) reply;
-            return multiGetReply.getMap();
-        }
+    private boolean isApplied(Message reply) {
+        if (reply instanceof ConditionalPutResponseMessage)
+            return ((ConditionalPutResponseMessage) reply).isApplied();
 
         throw new DatabaseClientException("Wrong response type from server");
     }
 
-    public byte[] getWhen(String key, String keyCond, byte[] valueCond) {
-        Message reply =
-            this.sendAndWaitForReply(i -> new GetWhenRequestMessage(i, key, keyCond, valueCond));
-        if (reply instanceof GetResponseMessage) {
-            GetResponseMessage getReply = (GetResponseMessage) reply;
-            return getReply.getValue();
-        }
+    private long getLongResponse(Message reply) {
+        if (reply instanceof LongResponseMessage)
+            return ((LongResponseMessage) reply).getValue();
+        else if (reply instanceof ErrorResponseMessage)
+            throw new DatabaseClientException(((ErrorResponseMessage) reply).getError());
 
         throw new DatabaseClientException("Wrong response type from server");
     }
 
-    private Message sendAndWaitForReply(Function<Integer, Message> createMessage) {
-        this.lock.lock();
+    private <T> T waitFor(CompletableFuture<T> future) {
         try {
-            // Create new message
-            int     messageId = this.nextId++;
-            Message request   = createMessage.apply(messageId);
-            if (request.getClass() == RegisterAuthenticateRequestMessage.class)
-                this.authenticationId = messageId;
-
-            if (!this.authenticated &&
-                request.getClass() != RegisterAuthenticateRequestMessage.class)
-                throw new DatabaseClientException("Not authenticated");
-
-            // Send and wait for reply
-            request.serialize(this.out);
-            this.out.flush();
-            Condition waitCondition = this.conditions[messageId % this.conditions.length];
-
-            Message reply = null;
-            while (!this.brokenConnection && (reply = this.replies.get(messageId)) == null)
-                waitCondition.awaitUninterruptibly();
-
-            // Handle reply
-            if (reply == null)
-                throw new DatabaseClientException("Unable to receive response from server");
-            this.replies.remove(messageId);
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DatabaseClientException)
+                throw (DatabaseClientException) e.getCause();
+            throw new DatabaseClientException(e.getMessage());
+        }
+    }
+
+    private CompletableFuture<Message> sendRequest(Function<Integer, Message> createMessage) {
+        // Create new message
+        int     messageId = this.nextId.getAndIncrement();
+        Message request   = createMessage.apply(messageId);
+
+        boolean isAuthentication = request.getClass() == RegisterAuthenticateRequestMessage.class;
+        if (!this.authenticated && !isAuthentication)
+            return CompletableFuture.failedFuture(new DatabaseClientException("Not authenticated"));
+
+        // Register request before sending it, so that the reply can't arrive first
+        CompletableFuture<Message> reply = new CompletableFuture<Message>();
+        this.pendingRequests.put(messageId, reply);
+        if (isAuthentication)
+            this.authenticationId = messageId;
+
+        if (this.brokenConnection) {
+            this.failPendingRequests();
             return reply;
-        } catch (IOException e) {
-            this.brokenConnection = true;
-            for (Condition c : this.conditions)
-                c.signalAll();
+        }
 
-            throw new DatabaseClientException(e.getClass().getSimpleName() + ": " + e.getMessage());
+        if (!this.sendMessage(request) && this.pendingRequests.remove(messageId) != null)
+            reply.completeExceptionally(new DatabaseClientException("Unable to send request"));
+        return reply;
+    }
+
+    // Only the last of the threads waiting to write flushes the stream, even if its own message
+    // failed. A message that fails halfway leaves the stream unusable, so null keys and values are
+    // rejected before getting here. Returns whether the message was written.
+    private boolean sendMessage(Message message) {
+        boolean sent = false;
+        this.waitingWriters.incrementAndGet();
+        this.writeLock.lock();
+        try {
+            message.serialize(this.out);
+            sent = true;
+        } catch (IOException | RuntimeException e) {
+            this.breakConnection();
         } finally {
-            this.lock.unlock();
+            try {
+                if (this.waitingWriters.decrementAndGet() == 0 && !this.brokenConnection)
+                    this.out.flush();
+            } catch (IOException e) {
+                this.breakConnection();
+                sent = false;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+        return sent;
+    }
+
+    private void breakConnection() {
+        this.brokenConnection = true;
+        this.failPendingRequests();
+    }
+
+    // Null keys and values can't be serialized
+    private static void checkPair(String key, byte[] value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+    }
+
+    private static void checkKeys(Collection<String> keys) {
+        for (String key : keys)
+            Objects.requireNonNull(key, "key");
+    }
+
+    private static void checkPairs(Map<String, byte[]> pairs) {
+        for (Map.Entry<String, byte[]> pair : pairs.entrySet())
+            DatabaseClient.checkPair(pair.getKey(), pair.getValue());
+    }
+
+    private void failPendingRequests() {
+        for (Integer requestId : this.pendingRequests.keySet()) {
+            CompletableFuture<Message> reply = this.pendingRequests.remove(requestId);
+            if (reply != null)
+                reply.completeExceptionally(
+                    new DatabaseClientException("Unable to receive response from server"));
         }
     }
 
@@ -179,62 +492,68 @@ public class DatabaseClient implements KeyValueDB {
         try {
             while (true) {
                 Message message = Message.deserialize(this.in);
+
+                if (message instanceof KeyChangedMessage) {
+                    this.notifySubscriber((KeyChangedMessage) message);
+                    continue;
+                }
+
+                int requestId;
                 if (message instanceof ResponseMessage) {
-                    int requestId = ((ResponseMessage) message).getRequestId();
-
-                    this.lock.lock();
-                    try {
-                        this.replies.put(requestId, message);
-                        this.conditions[requestId % this.conditions.length].signalAll();
-                    } finally {
-                        this.lock.unlock();
-                    }
+                    requestId = ((ResponseMessage) message).getRequestId();
                 } else if (message instanceof RegisterAuthenticateResponseMessage &&
                            !this.authenticated) {
-
-                    this.lock.lock();
-                    try {
-                        this.replies.put(this.authenticationId, message);
-                        this.conditions[this.authenticationId % this.conditions.length].signalAll();
-                    } finally {
-                        this.lock.unlock();
-                    }
+                    requestId = this.authenticationId;
                 } else {
                     System.err.printf("Invalid message received: %s\n",
                                       message.getClass().getSimpleName());
+                    continue;
                 }
+
+                CompletableFuture<Message> reply = this.pendingRequests.remove(requestId);
+                if (reply != null)
+                    reply.complete(message);
             }
         } catch (IOException e) {
             this.brokenConnection = true;
-
-            this.lock.lock();
-            try {
-                for (Condition c : this.conditions)
-                    c.signalAll();
-            } finally {
-                this.lock.unlock();
-            }
+            this.failPendingRequests();
 
             System.err.println("Deserialization thread stopping!");
         }
     }
 
-    public boolean isConnectionBroken() {
-        this.lock.lock();
+    private void notifySubscriber(KeyChangedMessage message) {
+        Consumer<KeyChangedMessage> listener = this.subscriptions.get(message.getSubscriptionId());
+        if (listener == null)
+            return; // Already unsubscribed
+
         try {
-            return this.brokenConnection;
-        } finally {
-            this.lock.unlock();
+            listener.accept(message);
+        } catch (RuntimeException e) {
+            // Don't let a bad listener stop the reader thread
+            System.err.printf("Subscription listener exception: %s\n", e.getMessage());
         }
     }
 
-    public boolean isAuthenticated() {
-        this.lock.lock();
+    // Requests still waiting for a reply fail, and so does everything sent afterwards
+    public void close() {
+        this.brokenConnection = true;
         try {
-            return this.authenticated;
-        } finally {
-            this.lock.unlock();
-        }
+            this.socket.close(); // Stops the reader thread
+        } catch (IOException e) {}
+        this.failPendingRequests();
+    }
+
+    public int getOutstandingRequests() {
+        return this.pendingRequests.size();
+    }
+
+    public boolean isConnectionBroken() {
+        return this.brokenConnection;
+    }
+
+    public boolean isAuthenticated() {
+        return this.authenticated;
     }
 
     @Override
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Reply to a request that the backend rejected (e.g.: adding to a value that isn't a counter)
+public class ErrorResponseMessage extends Message implements ResponseMessage {
+    private final int    requestId;
+    private final String error;
+
+    public ErrorResponseMessage(int requestId, String error) {
+        this.requestId = requestId;
+        this.error     = error;
+    }
+
+    public ErrorResponseMessage(ErrorResponseMessage message) {
+        this(message.getRequestId(), message.getError());
+    }
+
+    public static ErrorResponseMessage messageDeserialize(DataInputStream in) throws IOException {
+        int    requestId = in.readInt();
+        String error     = in.readUTF();
+        return new ErrorResponseMessage(requestId, error);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.requestId);
+        out.writeUTF(this.error);
+    }
+
+    public int getRequestId() {
+        return this.requestId;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    @Override
+    public Object clone() {
+        return new ErrorResponseMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        ErrorResponseMessage message = (ErrorResponseMessage) o;
+        return this.requestId == message.getRequestId() && this.error.equals(message.getError());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ErrorResponseMessage(requestId=%d, error=%s)",
+                             this.requestId,
+                             this.error);
+    }
+}
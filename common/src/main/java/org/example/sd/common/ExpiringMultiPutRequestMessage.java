@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// A multiPut whose keys expire (as if deleted) ttlMillis after being written
+public class ExpiringMultiPutRequestMessage extends Message {
+    private final int                 id;
+    private final Map<String, byte[]> pairs;
+    private final long                ttlMillis;
+
+    public ExpiringMultiPutRequestMessage(int id, Map<String, byte[]> pairs, long ttlMillis) {
+        this.id        = id;
+        this.pairs     = pairs.entrySet().stream().collect(
+            Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+        this.ttlMillis = ttlMillis;
+    }
+
+    public ExpiringMultiPutRequestMessage(ExpiringMultiPutRequestMessage message) {
+        this(message.getId(), message.getPairs(), message.getTtlMillis());
+    }
+
+    public static ExpiringMultiPutRequestMessage messageDeserialize(DataInputStream in)
+        throws IOException {
+
+        int                 id     = in.readInt();
+        int                 length = in.readInt();
+        Map<String, byte[]> pairs  = new HashMap<String, byte[]>();
+        for (int i = 0; i < length; i++) {
+            String key   = in.readUTF();
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            pairs.put(key, value);
+        }
+
+        long ttlMillis = in.readLong();
+        return new ExpiringMultiPutRequestMessage(id, pairs, ttlMillis);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+
+        out.writeInt(this.pairs.size());
+        for (Map.Entry<String, byte[]> entry : this.pairs.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+
+        out.writeLong(this.ttlMillis);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Map<String, byte[]> getPairs() {
+        return this.pairs.entrySet().stream().collect(
+            Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+    }
+
+    public long getTtlMillis() {
+        return this.ttlMillis;
+    }
+
+    @Override
+    public Object clone() {
+        return new ExpiringMultiPutRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        ExpiringMultiPutRequestMessage message = (ExpiringMultiPutRequestMessage) o;
+        return this.id == message.getId() &&
+            Message.getComparableMap(this.pairs).equals(
+                Message.getComparableMap(message.getPairs())) &&
+            this.ttlMillis == message.getTtlMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExpiringMultiPutRequestMessage(id=%d, pairs=%s, ttlMillis=%d)",
+                             this.id,
+                             Message.getComparableMap(this.pairs),
+                             this.ttlMillis);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// A put whose key expires (as if deleted) ttlMillis after being written
+public class ExpiringPutRequestMessage extends Message {
+    private final int    id;
+    private final String key;
+    private final byte[] value;
+    private final long   ttlMillis;
+
+    public ExpiringPutRequestMessage(int id, String key, byte[] value, long ttlMillis) {
+        this.id        = id;
+        this.key       = key;
+        this.value     = value.clone();
+        this.ttlMillis = ttlMillis;
+    }
+
+    public ExpiringPutRequestMessage(ExpiringPutRequestMessage message) {
+        this(message.getId(), message.getKey(), message.getValue(), message.getTtlMillis());
+    }
+
+    public static ExpiringPutRequestMessage messageDeserialize(DataInputStream in)
+        throws IOException {
+
+        int    id    = in.readInt();
+        String key   = in.readUTF();
+        byte[] value = new byte[in.readInt()];
+        in.readFully(value);
+
+        long ttlMillis = in.readLong();
+        return new ExpiringPutRequestMessage(id, key, value, ttlMillis);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+        out.writeUTF(this.key);
+        out.writeInt(this.value.length);
+        out.write(this.value);
+        out.writeLong(this.ttlMillis);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public byte[] getValue() {
+        return this.value.clone();
+    }
+
+    public long getTtlMillis() {
+        return this.ttlMillis;
+    }
+
+    @Override
+    public Object clone() {
+        return new ExpiringPutRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        ExpiringPutRequestMessage message = (ExpiringPutRequestMessage) o;
+        return this.id == message.getId() && this.key.equals(message.getKey()) &&
+            Arrays.equals(this.value, message.getValue()) &&
+            this.ttlMillis == message.getTtlMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExpiringPutRequestMessage(id=%d, key=%s, value=%s, ttlMillis=%d)",
+                             this.id,
+                             this.key,
+                             Arrays.toString(this.value),
+                             this.ttlMillis);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Reads up to length bytes of a value, starting at offset. Replied to with a GetResponseMessage.
+public class GetRangeRequestMessage extends Message {
+    private final int    id;
+    private final String key;
+    private final int    offset;
+    private final int    length;
+
+    public GetRangeRequestMessage(int id, String key, int offset, int length) {
+        this.id     = id;
+        this.key    = key;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public GetRangeRequestMessage(GetRangeRequestMessage message) {
+        this(message.getId(), message.getKey(), message.getOffset(), message.getLength());
+    }
+
+    public static GetRangeRequestMessage messageDeserialize(DataInputStream in) throws IOException {
+        int    id     = in.readInt();
+        String key    = in.readUTF();
+        int    offset = in.readInt();
+        int    length = in.readInt();
+
+        return new GetRangeRequestMessage(id, key, offset, length);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+        out.writeUTF(this.key);
+        out.writeInt(this.offset);
+        out.writeInt(this.length);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    @Override
+    public Object clone() {
+        return new GetRangeRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        GetRangeRequestMessage message = (GetRangeRequestMessage) o;
+        return this.id == message.getId() && this.key.equals(message.getKey()) &&
+            this.offset == message.getOffset() && this.length == message.getLength();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GetRangeRequestMessage(id=%d, key=%s, offset=%d, length=%d)",
+                             this.id,
+                             this.key,
+                             this.offset,
+                             this.length);
+    }
+}
@@ -42,7 +42,7 @@ public class GetResponseMessage extends Message implements ResponseMessage {
 
         byte[] value  = null;
         int    length = in.readInt();
-        if (length > 0) {
+        if (length >= 0) {
             value = new byte[length];
             in.readFully(value);
         }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Reply to a getWhen whose condition didn't hold before its deadline, or that was cancelled
+public class GetWhenAbortedResponseMessage extends Message implements ResponseMessage {
+    private final int     requestId;
+    private final boolean timedOut;
+
+    public GetWhenAbortedResponseMessage(int requestId, boolean timedOut) {
+        this.requestId = requestId;
+        this.timedOut  = timedOut;
+    }
+
+    public GetWhenAbortedResponseMessage(GetWhenAbortedResponseMessage message) {
+        this(message.getRequestId(), message.isTimedOut());
+    }
+
+    public static GetWhenAbortedResponseMessage messageDeserialize(DataInputStream in)
+        throws IOException {
+
+        int     requestId = in.readInt();
+        boolean timedOut  = in.readBoolean();
+        return new GetWhenAbortedResponseMessage(requestId, timedOut);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.requestId);
+        out.writeBoolean(this.timedOut);
+    }
+
+    public int getRequestId() {
+        return this.requestId;
+    }
+
+    public boolean isTimedOut() {
+        return this.timedOut;
+    }
+
+    @Override
+    public Object clone() {
+        return new GetWhenAbortedResponseMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        GetWhenAbortedResponseMessage message = (GetWhenAbortedResponseMessage) o;
+        return this.requestId == message.getRequestId() && this.timedOut == message.isTimedOut();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GetWhenAbortedResponseMessage(requestId=%d, timedOut=%b)",
+                             this.requestId,
+                             this.timedOut);
+    }
+}
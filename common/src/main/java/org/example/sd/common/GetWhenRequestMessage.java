@@ -25,17 +25,32 @@ public class GetWhenRequestMessage extends Message {
     private final int    id;
     private final String key;
     private final String keyCond;
-    private final byte[] valueCond;
+    private final byte[] valueCond;     // null for keyCond not existing
+    private final long   timeoutMillis; // 0 for no timeout
 
     public GetWhenRequestMessage(int id, String key, String keyCond, byte[] valueCond) {
-        this.id        = id;
-        this.key       = key;
-        this.keyCond   = keyCond;
-        this.valueCond = valueCond.clone();
+        this(id, key, keyCond, valueCond, 0);
+    }
+
+    public GetWhenRequestMessage(int    id,
+                                 String key,
+                                 String keyCond,
+                                 byte[] valueCond,
+                                 long   timeoutMillis) {
+
+        this.id            = id;
+        this.key           = key;
+        this.keyCond       = keyCond;
+        this.valueCond     = valueCond == null ? null : valueCond.clone();
+        this.timeoutMillis = timeoutMillis;
     }
 
     public GetWhenRequestMessage(GetWhenRequestMessage message) {
-        this(message.getId(), message.getKey(), message.getKeyCond(), message.getValueCond());
+        this(message.getId(),
+             message.getKey(),
+             message.getKeyCond(),
+             message.getValueCond(),
+             message.getTimeoutMillis());
     }
 
     public static GetWhenRequestMessage messageDeserialize(DataInputStream in) throws IOException {
@@ -43,18 +58,18 @@ public class GetWhenRequestMessage extends Message {
         String key     = in.readUTF();
         String keyCond = in.readUTF();
 
-        byte[] valueCond = new byte[in.readInt()];
-        in.readFully(valueCond);
+        byte[] valueCond = Message.readNullableBytes(in);
 
-        return new GetWhenRequestMessage(id, key, keyCond, valueCond);
+        long timeoutMillis = in.readLong();
+        return new GetWhenRequestMessage(id, key, keyCond, valueCond, timeoutMillis);
     }
 
     protected void messageSerialize(DataOutputStream out) throws IOException {
         out.writeInt(id);
         out.writeUTF(key);
         out.writeUTF(keyCond);
-        out.writeInt(valueCond.length);
-        out.write(valueCond);
+        Message.writeNullableBytes(out, valueCond);
+        out.writeLong(timeoutMillis);
     }
 
     public int getId() {
@@ -70,9 +85,15 @@ public class GetWhenRequestMessage extends Message {
     }
 
     public byte[] getValueCond() {
+        if (this.valueCond == null)
+            return null;
         return this.valueCond.clone();
     }
 
+    public long getTimeoutMillis() {
+        return this.timeoutMillis;
+    }
+
     @Override
     public Object clone() {
         return new GetWhenRequestMessage(this);
@@ -86,15 +107,18 @@ public class GetWhenRequestMessage extends Message {
         GetWhenRequestMessage message = (GetWhenRequestMessage) o;
         return this.id == message.getId() && this.key.equals(message.getKey()) &&
             this.keyCond.equals(message.getKeyCond()) &&
-            Arrays.equals(this.valueCond, message.getValueCond());
+            Arrays.equals(this.valueCond, message.getValueCond()) &&
+            this.timeoutMillis == message.getTimeoutMillis();
     }
 
     @Override
     public String toString() {
-        return String.format("GetWhenRequestMessage(id=%d, key=%s, keyCond=%s, valueCond=%s)",
-                             this.id,
-                             this.key,
-                             this.keyCond,
-                             Arrays.toString(this.valueCond));
+        return String.format(
+            "GetWhenRequestMessage(id=%d, key=%s, keyCond=%s, valueCond=%s, timeoutMillis=%d)",
+            this.id,
+            this.key,
+            this.keyCond,
+            Arrays.toString(this.valueCond),
+            this.timeoutMillis);
     }
 }
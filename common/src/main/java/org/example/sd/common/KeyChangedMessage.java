@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Pushed by the server when a subscribed key changes. Sequence numbers count every change seen by
+// the subscription: a gap means that newer values of a key replaced notifications that hadn't been
+// sent yet (the subscriber was too slow), and only the latest value was delivered. The value is
+// null when the key was deleted.
+public class KeyChangedMessage extends Message {
+    private final int    subscriptionId;
+    private final long   sequence;
+    private final String key;
+    private final byte[] value;
+
+    public KeyChangedMessage(int subscriptionId, long sequence, String key, byte[] value) {
+        this.subscriptionId = subscriptionId;
+        this.sequence       = sequence;
+        this.key            = key;
+        this.value          = value == null ? null : value.clone();
+    }
+
+    public KeyChangedMessage(KeyChangedMessage message) {
+        this(message.getSubscriptionId(),
+             message.getSequence(),
+             message.getKey(),
+             message.getValue());
+    }
+
+    public static KeyChangedMessage messageDeserialize(DataInputStream in) throws IOException {
+        int    subscriptionId = in.readInt();
+        long   sequence       = in.readLong();
+        String key            = in.readUTF();
+        byte[] value          = Message.readNullableBytes(in);
+
+        return new KeyChangedMessage(subscriptionId, sequence, key, value);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.subscriptionId);
+        out.writeLong(this.sequence);
+        out.writeUTF(this.key);
+        Message.writeNullableBytes(out, this.value);
+    }
+
+    public int getSubscriptionId() {
+        return this.subscriptionId;
+    }
+
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public byte[] getValue() {
+        if (this.value == null)
+            return null;
+        return this.value.clone();
+    }
+
+    @Override
+    public Object clone() {
+        return new KeyChangedMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        KeyChangedMessage message = (KeyChangedMessage) o;
+        return this.subscriptionId == message.getSubscriptionId() &&
+            this.sequence == message.getSequence() && this.key.equals(message.getKey()) &&
+            Arrays.equals(this.value, message.getValue());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("KeyChangedMessage(subscriptionId=%d, sequence=%d, key=%s, value=%s)",
+                             this.subscriptionId,
+                             this.sequence,
+                             this.key,
+                             Arrays.toString(this.value));
+    }
+}
@@ -26,5 +26,68 @@ public interface KeyValueDB {
     public Map<String, byte[]> multiGet(Set<String> keys);
     public byte[]              getWhen(String key, String keyCond, byte[] valueCond);
 
+    // Waits for all (or any) of the conditions to hold, and then reads keys atomically
+    public default Map<String, byte[]>
+        multiGetWhen(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+        throw new UnsupportedOperationException(
+            "multiGetWhen not supported: choose another backend");
+    }
+
+    // Compare-and-set: only writes the value if the key's current value is the expected one (a null
+    // expected value means that the key must not exist). Returns whether the value was written.
+    public default boolean putIf(String key, byte[] expected, byte[] value) {
+        throw new UnsupportedOperationException("putIf not supported: choose another backend");
+    }
+
+    // Atomically writes pairs, but only if every precondition holds (as in putIf)
+    public default boolean
+        multiPutIf(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        throw new UnsupportedOperationException(
+            "multiPutIf not supported: choose another backend");
+    }
+
+    // Adds delta to a counter (an 8-byte big-endian value, 0 if missing), returning its new value
+    public default long add(String key, long delta) {
+        throw new UnsupportedOperationException("add not supported: choose another backend");
+    }
+
+    // Appends bytes to a value (missing values are empty), returning its new length
+    public default int append(String key, byte[] suffix) {
+        throw new UnsupportedOperationException("append not supported: choose another backend");
+    }
+
+    // Reads up to length bytes of a value from offset on (null if the key is missing)
+    public default byte[] getRange(String key, int offset, int length) {
+        throw new UnsupportedOperationException("getRange not supported: choose another backend");
+    }
+
+    // Overwrites bytes of a value from offset on, zero-padding it (or a missing value) if it's too
+    // short, and returns its new length
+    public default int putRange(String key, int offset, byte[] bytes) {
+        throw new UnsupportedOperationException("putRange not supported: choose another backend");
+    }
+
+    // Removes a key, returning whether it existed. This wakes up getWhens waiting for the key not
+    // to exist (with a null valueCond).
+    public default boolean delete(String key) {
+        throw new UnsupportedOperationException("delete not supported: choose another backend");
+    }
+
+    // Atomically removes keys, returning how many of them existed
+    public default int multiDelete(Set<String> keys) {
+        throw new UnsupportedOperationException(
+            "multiDelete not supported: choose another backend");
+    }
+
+    // Writes a value that expires (as if deleted) ttlMillis after being written. A later put
+    // without a TTL makes the key persistent again.
+    public default void put(String key, byte[] value, long ttlMillis) {
+        throw new UnsupportedOperationException("TTLs not supported: choose another backend");
+    }
+
+    public default void multiPut(Map<String, byte[]> pairs, long ttlMillis) {
+        throw new UnsupportedOperationException("TTLs not supported: choose another backend");
+    }
+
     public Object clone();
 }
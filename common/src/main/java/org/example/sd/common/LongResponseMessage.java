@@ -0,0 +1,76 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Reply to an add (with the counter's new value) or to an append (with the value's new length)
+public class LongResponseMessage extends Message implements ResponseMessage {
+    private final int  requestId;
+    private final long value;
+
+    public LongResponseMessage(int requestId, long value) {
+        this.requestId = requestId;
+        this.value     = value;
+    }
+
+    public LongResponseMessage(LongResponseMessage message) {
+        this(message.getRequestId(), message.getValue());
+    }
+
+    public static LongResponseMessage messageDeserialize(DataInputStream in) throws IOException {
+        int  requestId = in.readInt();
+        long value     = in.readLong();
+        return new LongResponseMessage(requestId, value);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.requestId);
+        out.writeLong(this.value);
+    }
+
+    public int getRequestId() {
+        return this.requestId;
+    }
+
+    public long getValue() {
+        return this.value;
+    }
+
+    @Override
+    public Object clone() {
+        return new LongResponseMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        LongResponseMessage message = (LongResponseMessage) o;
+        return this.requestId == message.getRequestId() && this.value == message.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LongResponseMessage(requestId=%d, value=%d)",
+                             this.requestId,
+                             this.value);
+    }
+}
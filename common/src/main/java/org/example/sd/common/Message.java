@@ -19,56 +19,251 @@ package org.example.sd.common;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.ArrayUtils;
+
+// Messages are sent in frames: their length (not counting itself), their type, and their body, so
+// that readers can tell whether a whole message has arrived without trying to decode it
 public abstract class Message {
-    private static Map<String, Byte> classToTypeInteger;
-    private static Map<Byte, String> typeIntegerToClass;
+    private static final MessageDeserializer[] deserializers = new MessageDeserializer[256];
+    private static final Map<Class<? extends Message>, Byte> classToTypeInteger =
+        new HashMap<Class<? extends Message>, Byte>();
+
+    // Writes into an array sized in advance, which it must not outgrow
+    private static class ArrayOutputStream extends OutputStream {
+        private final byte[] bytes;
+        private int          position;
+
+        private ArrayOutputStream(byte[] bytes) {
+            this.bytes    = bytes;
+            this.position = 0;
+        }
+
+        @Override
+        public void write(int b) {
+            this.bytes[this.position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, this.bytes, this.position, len);
+            this.position += len;
+        }
+    }
 
+    // Codecs are registered once, and are then looked up without any reflection or string lookups
     static {
-        Message.classToTypeInteger =
-            Map.ofEntries(Map.entry("RegisterAuthenticateRequestMessage", (byte) 0),
-                          Map.entry("RegisterAuthenticateResponseMessage", (byte) 1),
+        Message.register(0,
+                         RegisterAuthenticateRequestMessage.class,
+                         RegisterAuthenticateRequestMessage::messageDeserialize);
+        Message.register(1,
+                         RegisterAuthenticateResponseMessage.class,
+                         RegisterAuthenticateResponseMessage::messageDeserialize);
+
+        Message.register(2, PutRequestMessage.class, PutRequestMessage::messageDeserialize);
+        Message.register(3, GetRequestMessage.class, GetRequestMessage::messageDeserialize);
+        Message.register(4,
+                         MultiPutRequestMessage.class,
+                         MultiPutRequestMessage::messageDeserialize);
+        Message.register(5,
+                         MultiGetRequestMessage.class,
+                         MultiGetRequestMessage::messageDeserialize);
+        Message.register(6, GetWhenRequestMessage.class, GetWhenRequestMessage::messageDeserialize);
+
+        Message.register(7, PutResponseMessage.class, PutResponseMessage::messageDeserialize);
+        Message.register(8, GetResponseMessage.class, GetResponseMessage::messageDeserialize);
+        // 9 is reserved (MultiPutResponseMessage was never needed)
+        Message.register(10,
+                         MultiGetResponseMessage.class,
+                         MultiGetResponseMessage::messageDeserialize);
+
+        Message.register(11, CancelRequestMessage.class, CancelRequestMessage::messageDeserialize);
+        Message.register(12,
+                         GetWhenAbortedResponseMessage.class,
+                         GetWhenAbortedResponseMessage::messageDeserialize);
+        Message.register(13,
+                         MultiGetWhenRequestMessage.class,
+                         MultiGetWhenRequestMessage::messageDeserialize);
+
+        Message.register(14,
+                         SubscribeRequestMessage.class,
+                         SubscribeRequestMessage::messageDeserialize);
+        Message.register(15,
+                         UnsubscribeRequestMessage.class,
+                         UnsubscribeRequestMessage::messageDeserialize);
+        Message.register(16, KeyChangedMessage.class, KeyChangedMessage::messageDeserialize);
+
+        Message.register(17, PutIfRequestMessage.class, PutIfRequestMessage::messageDeserialize);
+        Message.register(18,
+                         MultiPutIfRequestMessage.class,
+                         MultiPutIfRequestMessage::messageDeserialize);
+        Message.register(19,
+                         ConditionalPutResponseMessage.class,
+                         ConditionalPutResponseMessage::messageDeserialize);
 
-                          Map.entry("PutRequestMessage", (byte) 2),
-                          Map.entry("GetRequestMessage", (byte) 3),
-                          Map.entry("MultiPutRequestMessage", (byte) 4),
-                          Map.entry("MultiGetRequestMessage", (byte) 5),
-                          Map.entry("GetWhenRequestMessage", (byte) 6),
+        Message.register(20, AddRequestMessage.class, AddRequestMessage::messageDeserialize);
+        Message.register(21, AppendRequestMessage.class, AppendRequestMessage::messageDeserialize);
+        Message.register(22, LongResponseMessage.class, LongResponseMessage::messageDeserialize);
+        Message.register(23, ErrorResponseMessage.class, ErrorResponseMessage::messageDeserialize);
 
-                          Map.entry("PutResponseMessage", (byte) 7),
-                          Map.entry("GetResponseMessage", (byte) 8),
-                          Map.entry("MultiPutResponseMessage", (byte) 9),
-                          Map.entry("MultiGetResponseMessage", (byte) 10));
+        Message.register(24,
+                         GetRangeRequestMessage.class,
+                         GetRangeRequestMessage::messageDeserialize);
+        Message.register(25,
+                         PutRangeRequestMessage.class,
+                         PutRangeRequestMessage::messageDeserialize);
 
-        Message.typeIntegerToClass = Message.classToTypeInteger.entrySet().stream().collect(
-            Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey));
+        Message.register(26, DeleteRequestMessage.class, DeleteRequestMessage::messageDeserialize);
+        Message.register(27,
+                         MultiDeleteRequestMessage.class,
+                         MultiDeleteRequestMessage::messageDeserialize);
+
+        Message.register(28,
+                         ExpiringPutRequestMessage.class,
+                         ExpiringPutRequestMessage::messageDeserialize);
+        Message.register(29,
+                         ExpiringMultiPutRequestMessage.class,
+                         ExpiringMultiPutRequestMessage::messageDeserialize);
+    }
+
+    private static void register(int                      typeInteger,
+                                 Class<? extends Message> messageClass,
+                                 MessageDeserializer      deserializer) {
+
+        if (Message.deserializers[typeInteger] != null)
+            throw new IllegalStateException("Repeated message type: " + typeInteger);
+
+        Message.deserializers[typeInteger] = deserializer;
+        Message.classToTypeInteger.put(messageClass, (byte) typeInteger);
     }
 
     public static Message deserialize(DataInputStream in) throws IOException {
-        String messageClassName = Message.typeIntegerToClass.get(in.readByte());
-        if (messageClassName == null)
+        Message.checkFrameLength(in.readInt());
+        return Message.deserializeFrame(in);
+    }
+
+    // Returns null (leaving the buffer's position untouched) if the message isn't complete yet
+    public static Message deserialize(ByteBuffer in) throws IOException {
+        int length = Message.peekFrameLength(in);
+        if (length < 0 || in.remaining() < length)
+            return null;
+
+        int        start = in.position();
+        ByteBuffer frame = in.slice(start + Integer.BYTES, length - Integer.BYTES);
+        in.position(start + length);
+        return Message.deserializeFrame(new DataInputStream(new ByteBufferInputStream(frame)));
+    }
+
+    // Returns the length of the frame at the buffer's position, counting its length, or -1 if the
+    // length itself hasn't arrived yet
+    public static int peekFrameLength(ByteBuffer in) throws IOException {
+        if (in.remaining() < Integer.BYTES)
+            return -1;
+
+        int length = in.getInt(in.position());
+        Message.checkFrameLength(length);
+        return Integer.BYTES + length;
+    }
+
+    private static void checkFrameLength(int length) throws IOException {
+        if (length < 1 || length > Integer.MAX_VALUE - Integer.BYTES)
+            throw new IOException("Invalid frame length: " + length);
+    }
+
+    private static Message deserializeFrame(DataInputStream in) throws IOException {
+        MessageDeserializer deserializer = Message.deserializers[in.readByte() & 0xFF];
+        if (deserializer == null)
             throw new RuntimeException("Message class not supported");
 
-        try {
-            Class<?> messageClass = Class.forName("org.example.sd.common." + messageClassName);
-            Method   deserializeMethod =
-                messageClass.getMethod("messageDeserialize", DataInputStream.class);
-            return (Message) deserializeMethod.invoke(null, in);
-        } catch (ReflectiveOperationException e) {
-            throw new RuntimeException(e);
+        return deserializer.messageDeserialize(in);
+    }
+
+    // Collectors.toMap doesn't accept null values
+    protected static Map<String, byte[]> cloneNullableMap(Map<String, byte[]> map) {
+        Map<String, byte[]> ret = new HashMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> entry : map.entrySet())
+            ret.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().clone());
+        return ret;
+    }
+
+    protected static Map<String, List<Byte>> getComparableMap(Map<String, byte[]> map) {
+        Map<String, List<Byte>> ret = new HashMap<String, List<Byte>>();
+        for (Map.Entry<String, byte[]> entry : map.entrySet()) {
+            List<Byte> value = null;
+            if (entry.getValue() != null)
+                value = Arrays.asList(ArrayUtils.toObject(entry.getValue()));
+            ret.put(entry.getKey(), value);
+        }
+        return ret;
+    }
+
+    // Values that may be null are written with a length of -1
+    protected static byte[] readNullableBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+
+        byte[] ret = new byte[length];
+        in.readFully(ret);
+        return ret;
+    }
+
+    protected static void writeNullableBytes(DataOutputStream out, byte[] bytes)
+        throws IOException {
+
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
         }
     }
 
+    // Writes the frame straight into out, without buffering the body first
     public void serialize(DataOutputStream out) throws IOException {
-        Byte typeInteger = Message.classToTypeInteger.get(this.getClass().getSimpleName());
-        if (typeInteger == null)
-            throw new RuntimeException("Message class not supported");
+        byte typeInteger = this.getTypeInteger();
+        out.writeInt(this.getFrameLength());
+        out.writeByte(typeInteger);
+        this.messageSerialize(out);
+    }
+
+    // The whole frame, for callers that need it in an array. The array is allocated with its final
+    // size, and written in place.
+    public byte[] toFrame() throws IOException {
+        byte   typeInteger = this.getTypeInteger();
+        int    frameLength = this.getFrameLength();
+        byte[] ret         = new byte[Integer.BYTES + frameLength];
 
+        DataOutputStream out = new DataOutputStream(new ArrayOutputStream(ret));
+        out.writeInt(frameLength);
         out.writeByte(typeInteger);
         this.messageSerialize(out);
+        return ret;
+    }
+
+    private byte getTypeInteger() {
+        Byte typeInteger = Message.classToTypeInteger.get(this.getClass());
+        if (typeInteger == null)
+            throw new RuntimeException("Message class not supported");
+        return typeInteger;
+    }
+
+    // Length of the frame (type and body), found by serializing the body into a stream that only
+    // counts its bytes
+    private int getFrameLength() throws IOException {
+        DataOutputStream counter = new DataOutputStream(OutputStream.nullOutputStream());
+        this.messageSerialize(counter);
+
+        // size() stops at Integer.MAX_VALUE
+        if (counter.size() >= Integer.MAX_VALUE - 1)
+            throw new IOException("Message too large to be framed");
+        return 1 + counter.size();
     }
 
     public abstract Object  clone();
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Waits for all (or any) of the conditions to hold, and then reads keys atomically
+public class MultiGetWhenRequestMessage extends Message {
+    private final int                 id;
+    private final Set<String>         keys;
+    private final Map<String, byte[]> conditions;
+    private final boolean             allOf;
+    private final long                timeoutMillis; // 0 for no timeout
+
+    public MultiGetWhenRequestMessage(int                 id,
+                                      Set<String>         keys,
+                                      Map<String, byte[]> conditions,
+                                      boolean             allOf,
+                                      long                timeoutMillis) {
+
+        this.id            = id;
+        this.keys          = new HashSet<String>(keys);
+        this.conditions    = Message.cloneNullableMap(conditions);
+        this.allOf         = allOf;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public MultiGetWhenRequestMessage(MultiGetWhenRequestMessage message) {
+        this(message.getId(),
+             message.getKeys(),
+             message.getConditions(),
+             message.isAllOf(),
+             message.getTimeoutMillis());
+    }
+
+    public static MultiGetWhenRequestMessage messageDeserialize(DataInputStream in)
+        throws IOException {
+
+        int         id      = in.readInt();
+        int         nKeys   = in.readInt();
+        Set<String> keys    = new HashSet<String>();
+        for (int i = 0; i < nKeys; i++)
+            keys.add(in.readUTF());
+
+        int                 nConditions = in.readInt();
+        Map<String, byte[]> conditions  = new HashMap<String, byte[]>();
+        for (int i = 0; i < nConditions; i++) {
+            String key = in.readUTF();
+            conditions.put(key, Message.readNullableBytes(in));
+        }
+
+        boolean allOf         = in.readBoolean();
+        long    timeoutMillis = in.readLong();
+        return new MultiGetWhenRequestMessage(id, keys, conditions, allOf, timeoutMillis);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+
+        out.writeInt(this.keys.size());
+        for (String key : this.keys)
+            out.writeUTF(key);
+
+        out.writeInt(this.conditions.size());
+        for (Map.Entry<String, byte[]> entry : this.conditions.entrySet()) {
+            out.writeUTF(entry.getKey());
+            Message.writeNullableBytes(out, entry.getValue());
+        }
+
+        out.writeBoolean(this.allOf);
+        out.writeLong(this.timeoutMillis);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Set<String> getKeys() {
+        return new HashSet<String>(this.keys);
+    }
+
+    public Map<String, byte[]> getConditions() {
+        return Message.cloneNullableMap(this.conditions);
+    }
+
+    public boolean isAllOf() {
+        return this.allOf;
+    }
+
+    public long getTimeoutMillis() {
+        return this.timeoutMillis;
+    }
+
+    @Override
+    public Object clone() {
+        return new MultiGetWhenRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        MultiGetWhenRequestMessage message = (MultiGetWhenRequestMessage) o;
+        return this.id == message.getId() && this.keys.equals(message.getKeys()) &&
+            Message.getComparableMap(this.conditions)
+                .equals(Message.getComparableMap(message.getConditions())) &&
+            this.allOf == message.isAllOf() && this.timeoutMillis == message.getTimeoutMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "MultiGetWhenRequestMessage(id=%d, keys=%s, conditions=%s, allOf=%b, timeoutMillis=%d)",
+            this.id,
+            this.keys.toString(),
+            Message.getComparableMap(this.conditions),
+            this.allOf,
+            this.timeoutMillis);
+    }
+}
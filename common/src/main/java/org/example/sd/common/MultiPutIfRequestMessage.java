@@ -0,0 +1,125 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// A multiPut that is only applied if every precondition holds (null values in the preconditions
+// require keys not to exist)
+public class MultiPutIfRequestMessage extends Message {
+    private final int                 id;
+    private final Map<String, byte[]> preconditions;
+    private final Map<String, byte[]> pairs;
+
+    public MultiPutIfRequestMessage(int                 id,
+                                    Map<String, byte[]> preconditions,
+                                    Map<String, byte[]> pairs) {
+
+        this.id            = id;
+        this.preconditions = Message.cloneNullableMap(preconditions);
+        this.pairs         = pairs.entrySet().stream().collect(
+            Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+    }
+
+    public MultiPutIfRequestMessage(MultiPutIfRequestMessage message) {
+        this(message.getId(), message.getPreconditions(), message.getPairs());
+    }
+
+    public static MultiPutIfRequestMessage messageDeserialize(DataInputStream in)
+        throws IOException {
+
+        int                 id             = in.readInt();
+        int                 nPreconditions = in.readInt();
+        Map<String, byte[]> preconditions  = new HashMap<String, byte[]>();
+        for (int i = 0; i < nPreconditions; i++) {
+            String key = in.readUTF();
+            preconditions.put(key, Message.readNullableBytes(in));
+        }
+
+        int                 nPairs = in.readInt();
+        Map<String, byte[]> pairs  = new HashMap<String, byte[]>();
+        for (int i = 0; i < nPairs; i++) {
+            String key   = in.readUTF();
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            pairs.put(key, value);
+        }
+
+        return new MultiPutIfRequestMessage(id, preconditions, pairs);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+
+        out.writeInt(this.preconditions.size());
+        for (Map.Entry<String, byte[]> entry : this.preconditions.entrySet()) {
+            out.writeUTF(entry.getKey());
+            Message.writeNullableBytes(out, entry.getValue());
+        }
+
+        out.writeInt(this.pairs.size());
+        for (Map.Entry<String, byte[]> entry : this.pairs.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Map<String, byte[]> getPreconditions() {
+        return Message.cloneNullableMap(this.preconditions);
+    }
+
+    public Map<String, byte[]> getPairs() {
+        return this.pairs.entrySet().stream().collect(
+            Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+    }
+
+    @Override
+    public Object clone() {
+        return new MultiPutIfRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        MultiPutIfRequestMessage message = (MultiPutIfRequestMessage) o;
+        return this.id == message.getId() &&
+            Message.getComparableMap(this.preconditions)
+                .equals(Message.getComparableMap(message.getPreconditions())) &&
+            Message.getComparableMap(this.pairs)
+                .equals(Message.getComparableMap(message.getPairs()));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MultiPutIfRequestMessage(id=%d, preconditions=%s, pairs=%s)",
+                             this.id,
+                             Message.getComparableMap(this.preconditions),
+                             Message.getComparableMap(this.pairs));
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+// Spreads requests over many connections to the same server (see SessionManager.maxSessionsPerUser).
+// Subscriptions all go through the first connection, where their notifications arrive.
+public class PooledDatabaseClient implements KeyValueDB, AsyncKeyValueDB, AutoCloseable {
+    private final    DatabaseClient[] connections;
+    private volatile boolean          authenticated;
+
+    public PooledDatabaseClient(String address, int port, int nConnections) throws IOException {
+        if (nConnections < 1)
+            throw new IllegalArgumentException("A pool needs at least one connection");
+
+        this.connections   = new DatabaseClient[nConnections];
+        this.authenticated = false;
+
+        for (int i = 0; i < nConnections; ++i) {
+            try {
+                this.connections[i] = new DatabaseClient(address, port);
+            } catch (IOException e) {
+                for (int j = 0; j < i; ++j)
+                    this.connections[j].close();
+                throw e;
+            }
+        }
+    }
+
+    // The pool is only usable once every connection is authenticated. If any of them fails, the
+    // pool is closed. UNSAFE FOR MANY *EXTERNAL* THREADS TO USE AT ONCE
+    public RegistrationAuthenticationStatus authenticate(String username, String password) {
+        if (this.authenticated)
+            throw new DatabaseClientException("Already authenticated");
+
+        RegistrationAuthenticationStatus firstStatus = null;
+        try {
+            for (DatabaseClient connection : this.connections) {
+                RegistrationAuthenticationStatus status =
+                    connection.authenticate(username, password);
+                if (firstStatus == null)
+                    firstStatus = status; // Only the first connection may register the user
+
+                if (status != RegistrationAuthenticationStatus.SUCCESS &&
+                    status != RegistrationAuthenticationStatus.SUCCESS_NEW_USER) {
+                    this.close();
+                    return status;
+                }
+            }
+        } catch (RuntimeException e) {
+            this.close();
+            throw e;
+        }
+
+        this.authenticated = true;
+        return firstStatus;
+    }
+
+    public void close() {
+        this.authenticated = false;
+        for (DatabaseClient connection : this.connections)
+            connection.close();
+    }
+
+    public void put(String key, byte[] value) {
+        this.waitFor(this.putAsync(key, value));
+    }
+
+    public void put(String key, byte[] value, long ttlMillis) {
+        this.waitFor(this.putAsync(key, value, ttlMillis));
+    }
+
+    public byte[] get(String key) {
+        return this.waitFor(this.getAsync(key));
+    }
+
+    public void multiPut(Map<String, byte[]> pairs) {
+        this.waitFor(this.multiPutAsync(pairs));
+    }
+
+    public void multiPut(Map<String, byte[]> pairs, long ttlMillis) {
+        this.waitFor(this.multiPutAsync(pairs, ttlMillis));
+    }
+
+    public Map<String, byte[]> multiGet(Set<String> keys) {
+        return this.waitFor(this.multiGetAsync(keys));
+    }
+
+    public byte[] getWhen(String key, String keyCond, byte[] valueCond) {
+        return this.waitFor(this.getWhenAsync(key, keyCond, valueCond));
+    }
+
+    public byte[] getWhen(String key, String keyCond, byte[] valueCond, long timeoutMillis) {
+        return this.waitFor(this.getWhenAsync(key, keyCond, valueCond, timeoutMillis));
+    }
+
+    public Map<String, byte[]>
+        multiGetWhen(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+        return this.waitFor(this.multiGetWhenAsync(keys, conditions, allOf, 0));
+    }
+
+    public Map<String, byte[]> multiGetWhen(Set<String>         keys,
+                                            Map<String, byte[]> conditions,
+                                            boolean             allOf,
+                                            long                timeoutMillis) {
+        return this.waitFor(this.multiGetWhenAsync(keys, conditions, allOf, timeoutMillis));
+    }
+
+    public Subscription subscribe(Set<String> keys, Consumer<KeyChangedMessage> listener) {
+        return this.waitFor(this.subscribeAsync(keys, listener));
+    }
+
+    public boolean putIf(String key, byte[] expected, byte[] value) {
+        return this.waitFor(this.putIfAsync(key, expected, value));
+    }
+
+    public boolean multiPutIf(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return this.waitFor(this.multiPutIfAsync(preconditions, pairs));
+    }
+
+    public long add(String key, long delta) {
+        return this.waitFor(this.addAsync(key, delta));
+    }
+
+    public int append(String key, byte[] suffix) {
+        return this.waitFor(this.appendAsync(key, suffix));
+    }
+
+    public byte[] getRange(String key, int offset, int length) {
+        return this.waitFor(this.getRangeAsync(key, offset, length));
+    }
+
+    public int putRange(String key, int offset, byte[] bytes) {
+        return this.waitFor(this.putRangeAsync(key, offset, bytes));
+    }
+
+    public boolean delete(String key) {
+        return this.waitFor(this.deleteAsync(key));
+    }
+
+    public int multiDelete(Set<String> keys) {
+        return this.waitFor(this.multiDeleteAsync(keys));
+    }
+
+    public CompletableFuture<Void> putAsync(String key, byte[] value) {
+        return this.chooseConnection().putAsync(key, value);
+    }
+
+    public CompletableFuture<Void> putAsync(String key, byte[] value, long ttlMillis) {
+        return this.chooseConnection().putAsync(key, value, ttlMillis);
+    }
+
+    public CompletableFuture<byte[]> getAsync(String key) {
+        return this.chooseConnection().getAsync(key);
+    }
+
+    public CompletableFuture<Void> multiPutAsync(Map<String, byte[]> pairs) {
+        return this.chooseConnection().multiPutAsync(pairs);
+    }
+
+    public CompletableFuture<Void> multiPutAsync(Map<String, byte[]> pairs, long ttlMillis) {
+        return this.chooseConnection().multiPutAsync(pairs, ttlMillis);
+    }
+
+    public CompletableFuture<Map<String, byte[]>> multiGetAsync(Set<String> keys) {
+        return this.chooseConnection().multiGetAsync(keys);
+    }
+
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond) {
+        return this.chooseConnection().getWhenAsync(key, keyCond, valueCond);
+    }
+
+    // Cancelling the returned future also cancels the request in the server
+    public CompletableFuture<byte[]>
+        getWhenAsync(String key, String keyCond, byte[] valueCond, long timeoutMillis) {
+        return this.chooseConnection().getWhenAsync(key, keyCond, valueCond, timeoutMillis);
+    }
+
+    // Cancelling the returned future also cancels the request in the server
+    public CompletableFuture<Map<String, byte[]>>
+        multiGetWhenAsync(Set<String>         keys,
+                          Map<String, byte[]> conditions,
+                          boolean             allOf,
+                          long                timeoutMillis) {
+        return this.chooseConnection().multiGetWhenAsync(keys, conditions, allOf, timeoutMillis);
+    }
+
+    // Always on the first connection, which delivers the notifications and must get the
+    // unsubscription. As in DatabaseClient, the listener is called from its reader thread.
+    public CompletableFuture<Subscription>
+        subscribeAsync(Set<String> keys, Consumer<KeyChangedMessage> listener) {
+        if (!this.authenticated)
+            return CompletableFuture.failedFuture(new DatabaseClientException("Not authenticated"));
+        return this.connections[0].subscribeAsync(keys, listener);
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        this.connections[0].unsubscribe(subscription);
+    }
+
+    public CompletableFuture<Boolean> putIfAsync(String key, byte[] expected, byte[] value) {
+        return this.chooseConnection().putIfAsync(key, expected, value);
+    }
+
+    public CompletableFuture<Boolean>
+        multiPutIfAsync(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return this.chooseConnection().multiPutIfAsync(preconditions, pairs);
+    }
+
+    public CompletableFuture<Long> addAsync(String key, long delta) {
+        return this.chooseConnection().addAsync(key, delta);
+    }
+
+    public CompletableFuture<Integer> appendAsync(String key, byte[] suffix) {
+        return this.chooseConnection().appendAsync(key, suffix);
+    }
+
+    public CompletableFuture<byte[]> getRangeAsync(String key, int offset, int length) {
+        return this.chooseConnection().getRangeAsync(key, offset, length);
+    }
+
+    public CompletableFuture<Integer> putRangeAsync(String key, int offset, byte[] bytes) {
+        return this.chooseConnection().putRangeAsync(key, offset, bytes);
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(String key) {
+        return this.chooseConnection().deleteAsync(key);
+    }
+
+    public CompletableFuture<Integer> multiDeleteAsync(Set<String> keys) {
+        return this.chooseConnection().multiDeleteAsync(keys);
+    }
+
+    // Least outstanding requests first, skipping broken connections
+    private DatabaseClient chooseConnection() {
+        if (!this.authenticated)
+            throw new DatabaseClientException("Not authenticated");
+
+        DatabaseClient best            = null;
+        int            bestOutstanding = Integer.MAX_VALUE;
+
+        for (DatabaseClient connection : this.connections) {
+            if (connection.isConnectionBroken())
+                continue;
+
+            int outstanding = connection.getOutstandingRequests();
+            if (outstanding < bestOutstanding) {
+                best            = connection;
+                bestOutstanding = outstanding;
+            }
+        }
+
+        if (best == null)
+            throw new DatabaseClientException("No healthy connection to the server");
+        return best;
+    }
+
+    private <T> T waitFor(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DatabaseClientException)
+                throw (DatabaseClientException) e.getCause();
+            throw new DatabaseClientException(e.getMessage());
+        }
+    }
+
+    public int getNConnections() {
+        return this.connections.length;
+    }
+
+    public int getHealthyConnections() {
+        int healthy = 0;
+        for (DatabaseClient connection : this.connections)
+            if (!connection.isConnectionBroken())
+                healthy++;
+        return healthy;
+    }
+
+    public boolean isConnectionBroken() {
+        return this.getHealthyConnections() == 0;
+    }
+
+    public boolean isAuthenticated() {
+        return this.authenticated;
+    }
+
+    @Override
+    public Object clone() {
+        return this; // Just like DatabaseClient, connections can't be cloned
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PooledDatabaseClient(connections=%d, healthy=%d)",
+                             this.connections.length,
+                             this.getHealthyConnections());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Compare-and-set: the value is only written if the key's current value is the expected one (a
+// null expected value means that the key must not exist)
+public class PutIfRequestMessage extends Message {
+    private final int    id;
+    private final String key;
+    private final byte[] expected;
+    private final byte[] value;
+
+    public PutIfRequestMessage(int id, String key, byte[] expected, byte[] value) {
+        this.id       = id;
+        this.key      = key;
+        this.expected = expected == null ? null : expected.clone();
+        this.value    = value.clone();
+    }
+
+    public PutIfRequestMessage(PutIfRequestMessage message) {
+        this(message.getId(), message.getKey(), message.getExpected(), message.getValue());
+    }
+
+    public static PutIfRequestMessage messageDeserialize(DataInputStream in) throws IOException {
+        int    id       = in.readInt();
+        String key      = in.readUTF();
+        byte[] expected = Message.readNullableBytes(in);
+        byte[] value    = new byte[in.readInt()];
+        in.readFully(value);
+
+        return new PutIfRequestMessage(id, key, expected, value);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+        out.writeUTF(this.key);
+        Message.writeNullableBytes(out, this.expected);
+        out.writeInt(this.value.length);
+        out.write(this.value);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public byte[] getExpected() {
+        return this.expected == null ? null : this.expected.clone();
+    }
+
+    public byte[] getValue() {
+        return this.value.clone();
+    }
+
+    @Override
+    public Object clone() {
+        return new PutIfRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        PutIfRequestMessage message = (PutIfRequestMessage) o;
+        return this.id == message.getId() && this.key.equals(message.getKey()) &&
+            Arrays.equals(this.expected, message.getExpected()) &&
+            Arrays.equals(this.value, message.getValue());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PutIfRequestMessage(id=%d, key=%s, expected=%s, value=%s)",
+                             this.id,
+                             this.key,
+                             Arrays.toString(this.expected),
+                             Arrays.toString(this.value));
+    }
+}
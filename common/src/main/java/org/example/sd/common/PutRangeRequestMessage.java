@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Overwrites the bytes of a value starting at offset (zero-padding it if it's too short), replying
+// with its new length
+public class PutRangeRequestMessage extends Message {
+    private final int    id;
+    private final String key;
+    private final int    offset;
+    private final byte[] bytes;
+
+    public PutRangeRequestMessage(int id, String key, int offset, byte[] bytes) {
+        this.id     = id;
+        this.key    = key;
+        this.offset = offset;
+        this.bytes  = bytes.clone();
+    }
+
+    public PutRangeRequestMessage(PutRangeRequestMessage message) {
+        this(message.getId(), message.getKey(), message.getOffset(), message.getBytes());
+    }
+
+    public static PutRangeRequestMessage messageDeserialize(DataInputStream in) throws IOException {
+        int    id     = in.readInt();
+        String key    = in.readUTF();
+        int    offset = in.readInt();
+        byte[] bytes  = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        return new PutRangeRequestMessage(id, key, offset, bytes);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+        out.writeUTF(this.key);
+        out.writeInt(this.offset);
+        out.writeInt(this.bytes.length);
+        out.write(this.bytes);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public byte[] getBytes() {
+        return this.bytes.clone();
+    }
+
+    @Override
+    public Object clone() {
+        return new PutRangeRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        PutRangeRequestMessage message = (PutRangeRequestMessage) o;
+        return this.id == message.getId() && this.key.equals(message.getKey()) &&
+            this.offset == message.getOffset() && Arrays.equals(this.bytes, message.getBytes());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PutRangeRequestMessage(id=%d, key=%s, offset=%d, bytes=%s)",
+                             this.id,
+                             this.key,
+                             this.offset,
+                             Arrays.toString(this.bytes));
+    }
+}
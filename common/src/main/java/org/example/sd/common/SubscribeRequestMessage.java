@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+// Starts streaming changes to keys. The server answers with a MultiGetResponseMessage holding the
+// keys' current values, and then sends a KeyChangedMessage (with this request's id as the
+// subscription id) for every later change.
+public class SubscribeRequestMessage extends Message {
+    private final int         id;
+    private final Set<String> keys;
+
+    public SubscribeRequestMessage(int id, Set<String> keys) {
+        this.id   = id;
+        this.keys = new HashSet<String>(keys);
+    }
+
+    public SubscribeRequestMessage(SubscribeRequestMessage message) {
+        this(message.getId(), message.getKeys());
+    }
+
+    public static SubscribeRequestMessage messageDeserialize(DataInputStream in)
+        throws IOException {
+
+        int         id     = in.readInt();
+        int         length = in.readInt();
+        Set<String> keys   = new HashSet<String>();
+        for (int i = 0; i < length; i++)
+            keys.add(in.readUTF());
+
+        return new SubscribeRequestMessage(id, keys);
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.id);
+        out.writeInt(this.keys.size());
+        for (String key : this.keys)
+            out.writeUTF(key);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Set<String> getKeys() {
+        return new HashSet<String>(this.keys);
+    }
+
+    @Override
+    public Object clone() {
+        return new SubscribeRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || this.getClass() != o.getClass())
+            return false;
+
+        SubscribeRequestMessage message = (SubscribeRequestMessage) o;
+        return this.id == message.getId() && this.keys.equals(message.getKeys());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SubscribeRequestMessage(id=%d, keys=%s)",
+                             this.id,
+                             this.keys.toString());
+    }
+}
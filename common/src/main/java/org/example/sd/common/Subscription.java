@@ -0,0 +1,86 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+// A client's subscription to a set of keys, with the values they had when it started
+public class Subscription {
+    private final int                 id;
+    private final Set<String>         keys;
+    private final Map<String, byte[]> initialValues;
+
+    public Subscription(int id, Set<String> keys, Map<String, byte[]> initialValues) {
+        this.id            = id;
+        this.keys          = new HashSet<String>(keys);
+        this.initialValues = initialValues.entrySet().stream().collect(
+            Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+    }
+
+    public Subscription(Subscription subscription) {
+        this(subscription.getId(), subscription.getKeys(), subscription.getInitialValues());
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Set<String> getKeys() {
+        return new HashSet<String>(this.keys);
+    }
+
+    public Map<String, byte[]> getInitialValues() {
+        return this.initialValues.entrySet().stream().collect(
+            Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+    }
+
+    private Map<String, List<Byte>> getComparableInitialValues() {
+        return this.initialValues.entrySet().stream().collect(
+            Collectors.toMap(Map.Entry::getKey,
+                             e -> Arrays.asList(ArrayUtils.toObject(e.getValue()))));
+    }
+
+    @Override
+    public Object clone() {
+        return new Subscription(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        Subscription subscription = (Subscription) o;
+        return this.id == subscription.getId() && this.keys.equals(subscription.getKeys()) &&
+            this.getComparableInitialValues().equals(subscription.getComparableInitialValues());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Subscription(id=%d, keys=%s, initialValues=%s)",
+                             this.id,
+                             this.keys,
+                             this.getComparableInitialValues());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Ends a subscription. There's no reply, and notifications already on their way may still arrive.
+public class UnsubscribeRequestMessage extends Message {
+    private final int subscriptionId;
+
+    public UnsubscribeRequestMessage(int subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public UnsubscribeRequestMessage(UnsubscribeRequestMessage message) {
+        this(message.getSubscriptionId());
+    }
+
+    public static UnsubscribeRequestMessage messageDeserialize(DataInputStream in)
+        throws IOException {
+
+        return new UnsubscribeRequestMessage(in.readInt());
+    }
+
+    protected void messageSerialize(DataOutputStream out) throws IOException {
+        out.writeInt(this.subscriptionId);
+    }
+
+    public int getSubscriptionId() {
+        return this.subscriptionId;
+    }
+
+    @Override
+    public Object clone() {
+        return new UnsubscribeRequestMessage(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        UnsubscribeRequestMessage message = (UnsubscribeRequestMessage) o;
+        return this.subscriptionId == message.getSubscriptionId();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UnsubscribeRequestMessage(subscriptionId=%d)", this.subscriptionId);
+    }
+}
@@ -17,6 +17,7 @@
 plugins {
     java
     `java-library`
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories {
@@ -32,3 +33,9 @@ java {
         languageVersion = JavaLanguageVersion.of(21)
     }
 }
+
+jmh {
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.example.sd.common.KeyValueDB;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Put latency distribution while many getWhen calls wait on the keys being written, with values
+// that never satisfy them
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GetWhenBenchmark {
+    private static final int    N_COND_KEYS   = 16;
+    private static final byte[] WAITED_VALUE  = new byte[] { 1 };
+    private static final byte[] WRITTEN_VALUE = new byte[] { 0 };
+
+    @Param({ "SimpleHashMapBackend", "MultiConditionHashMapBackend", "ShardedHashMapBackend" })
+    private String backendName;
+
+    @Param({ "0", "1000" })
+    private int nWaiters;
+
+    private KeyValueDB   backend;
+    private List<Thread> waiters;
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        switch (this.backendName) {
+            case "SimpleHashMapBackend":
+                this.backend = new SimpleHashMapBackend();
+                break;
+            case "MultiConditionHashMapBackend":
+                this.backend = new MultiConditionHashMapBackend();
+                break;
+            default:
+                this.backend = new ShardedHashMapBackend(64);
+                break;
+        }
+
+        this.waiters = new ArrayList<Thread>();
+        for (int i = 0; i < this.nWaiters; ++i) {
+            String keyCond = "cond" + (i % N_COND_KEYS);
+            Thread thread  = new Thread(() -> this.backend.getWhen("key", keyCond, WAITED_VALUE));
+            thread.setDaemon(true);
+            thread.start();
+            this.waiters.add(thread);
+        }
+
+        Thread.sleep(500); // Let all waiters register
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        Map<String, byte[]> release = new HashMap<String, byte[]>();
+        for (int i = 0; i < N_COND_KEYS; ++i)
+            release.put("cond" + i, WAITED_VALUE);
+        this.backend.multiPut(release);
+
+        for (Thread thread : this.waiters)
+            thread.join();
+    }
+
+    @Benchmark
+    public void put() {
+        int keyIndex = ThreadLocalRandom.current().nextInt(N_COND_KEYS);
+        this.backend.put("cond" + keyIndex, WRITTEN_VALUE);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// A backend that can register a getWhen without blocking the calling thread. The returned future
+// is completed by the write that satisfies the condition, after it releases the database's locks.
+public interface AsyncGetWhenBackend {
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond);
+    public CompletableFuture<Map<String, byte[]>>
+        multiGetWhenAsync(Set<String> keys, Map<String, byte[]> conditions, boolean allOf);
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.example.sd.common.KeyValueDB;
+
+// Values live in a ConcurrentHashMap, and each key is guarded by one of nStripes StampedLocks.
+// Writers hold the stripes of all keys they change, so that reads (optimistic, falling back to read
+// locks) never observe a partially applied multiPut. getWhen triggers are registered under each of
+// their condition keys, and receive their values from the writer that satisfies them, while it
+// still holds the locks.
+public class ConcurrentHashMapBackend
+    implements KeyValueDB, AsyncGetWhenBackend, WatchableBackend {
+
+    private final int                                      nStripes;
+    private StampedLock[]                                  stripes;
+    private volatile ConcurrentHashMap<String, byte[]>     map; // Replaced under all stripes
+    private ConcurrentHashMap<String, Set<GetWhenTrigger>> waiters;
+    private DeletionCounter                                deletions;
+    private volatile KeyChangeListener                     changeListener;
+
+    public ConcurrentHashMapBackend(int nStripes) {
+        this.nStripes       = nStripes;
+        this.stripes        = new StampedLock[nStripes];
+        this.map            = new ConcurrentHashMap<String, byte[]>();
+        this.waiters        = new ConcurrentHashMap<String, Set<GetWhenTrigger>>();
+        this.deletions      = new DeletionCounter();
+        this.changeListener = null;
+
+        for (int i = 0; i < nStripes; ++i)
+            this.stripes[i] = new StampedLock();
+    }
+
+    public ConcurrentHashMapBackend(ConcurrentHashMapBackend database) {
+        this(database.getNStripes());
+        this.map.putAll(database.getMap());
+    }
+
+    public void put(String key, byte[] value) {
+        this.write(Set.of(key), Set.of(), () -> Map.of(key, value.clone()));
+    }
+
+    public boolean putIf(String key, byte[] expected, byte[] value) {
+        return this.write(Set.of(key), Set.of(), () -> {
+            if (!Arrays.equals(this.map.get(key), expected))
+                return null;
+            return Map.of(key, value.clone());
+        }) != null;
+    }
+
+    public long add(String key, long delta) {
+        Map<String, byte[]> written = this.write(Set.of(key), Set.of(), () -> {
+            return Map.of(key, ValueOperations.add(this.map.get(key), delta));
+        });
+        return ValueOperations.toLong(written.get(key));
+    }
+
+    public int append(String key, byte[] suffix) {
+        Map<String, byte[]> written = this.write(Set.of(key), Set.of(), () -> {
+            return Map.of(key, ValueOperations.append(this.map.get(key), suffix));
+        });
+        return written.get(key).length;
+    }
+
+    public int putRange(String key, int offset, byte[] bytes) {
+        Map<String, byte[]> written = this.write(Set.of(key), Set.of(), () -> {
+            return Map.of(key, ValueOperations.putRange(this.map.get(key), offset, bytes));
+        });
+        return written.get(key).length;
+    }
+
+    public boolean delete(String key) {
+        return this.multiDelete(Set.of(key)) > 0;
+    }
+
+    // Deleting a missing key changes nothing, so it isn't reported
+    public int multiDelete(Set<String> keys) {
+        Map<String, byte[]> deleted = this.write(keys, Set.of(), () -> {
+            Map<String, byte[]> ret = new HashMap<String, byte[]>();
+            for (String key : keys)
+                if (this.map.containsKey(key))
+                    ret.put(key, null);
+            return ret;
+        });
+
+        if (!deleted.isEmpty() && this.deletions.deleted(deleted.size(), this.map.size()))
+            this.shrink();
+        return deleted.size();
+    }
+
+    public byte[] get(String key) {
+        return this.read(key, value -> value == null ? null : value.clone());
+    }
+
+    public byte[] getRange(String key, int offset, int length) {
+        return this.read(key, value -> ValueOperations.getRange(value, offset, length));
+    }
+
+    // Values may be patched in place by writers, so they're copied before validating the stamp
+    private byte[] read(String key, UnaryOperator<byte[]> copy) {
+        StampedLock stripe = this.stripes[this.stripeOf(key)];
+
+        long   stamp = stripe.tryOptimisticRead();
+        byte[] value = copy.apply(this.map.get(key));
+        if (!stripe.validate(stamp)) {
+            stamp = stripe.readLock();
+            try {
+                value = copy.apply(this.map.get(key));
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        }
+
+        return value;
+    }
+
+    public void multiPut(Map<String, byte[]> pairs) {
+        this.write(pairs.keySet(), Set.of(), () -> ConcurrentHashMapBackend.copyValues(pairs));
+    }
+
+    public boolean multiPutIf(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return this.write(pairs.keySet(), preconditions.keySet(), () -> {
+            for (Map.Entry<String, byte[]> precondition : preconditions.entrySet()) {
+                byte[] current = this.map.get(precondition.getKey());
+                if (!Arrays.equals(current, precondition.getValue()))
+                    return null;
+            }
+            return ConcurrentHashMapBackend.copyValues(pairs);
+        }) != null;
+    }
+
+    public Map<String, byte[]> multiGet(Set<String> keys) {
+        Map<String, byte[]> ret     = new HashMap<String, byte[]>();
+        int[]               indices = this.stripesOf(keys);
+        long[]              stamps  = new long[indices.length];
+
+        // Optimistic attempt
+        for (int i = 0; i < indices.length; ++i)
+            stamps[i] = this.stripes[indices[i]].tryOptimisticRead();
+
+        this.readInto(keys, ret);
+
+        boolean valid = true;
+        for (int i = 0; i < indices.length && valid; ++i)
+            valid = this.stripes[indices[i]].validate(stamps[i]);
+
+        // Fallback to read locks
+        if (!valid) {
+            ret.clear();
+
+            int acquiredLocksCount = 0;
+            try {
+                for (int i = 0; i < indices.length; ++i) {
+                    stamps[i] = this.stripes[indices[i]].readLock();
+                    acquiredLocksCount++;
+                }
+
+                this.readInto(keys, ret);
+            } finally {
+                for (int i = 0; i < acquiredLocksCount; ++i)
+                    this.stripes[indices[i]].unlockRead(stamps[i]);
+            }
+        }
+
+        return ret;
+    }
+
+    public byte[] getWhen(String key, String keyCond, byte[] valueCond) {
+        return this.getWhenAsync(key, keyCond, valueCond).join();
+    }
+
+    public Map<String, byte[]>
+        multiGetWhen(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+        return this.multiGetWhenAsync(keys, conditions, allOf).join();
+    }
+
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond) {
+        return this.registerTrigger(() -> new GetWhenTrigger(key, keyCond, valueCond),
+                                    trigger -> trigger.getValue());
+    }
+
+    public CompletableFuture<Map<String, byte[]>>
+        multiGetWhenAsync(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+
+        if (conditions.isEmpty())
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("multiGetWhen requires at least one condition"));
+
+        return this.registerTrigger(() -> new GetWhenTrigger(keys, conditions, allOf),
+                                    trigger -> trigger.getValues());
+    }
+
+    private <T> CompletableFuture<T> registerTrigger(Supplier<GetWhenTrigger>    newTrigger,
+                                                     Function<GetWhenTrigger, T> result) {
+        GetWhenTrigger trigger = newTrigger.get();
+
+        Set<String> lockedKeys = new HashSet<String>(trigger.getKeys());
+        lockedKeys.addAll(trigger.getConditionKeys());
+        int[]  indices = this.stripesOf(lockedKeys);
+        long[] stamps  = new long[indices.length];
+
+        // Optimistic attempt, for conditions that already hold
+        for (int i = 0; i < indices.length; ++i)
+            stamps[i] = this.stripes[indices[i]].tryOptimisticRead();
+
+        boolean valid = trigger.tryFire(this.map);
+        for (int i = 0; i < indices.length && valid; ++i)
+            valid = this.stripes[indices[i]].validate(stamps[i]);
+
+        if (valid)
+            return CompletableFuture.completedFuture(result.apply(trigger));
+        trigger = newTrigger.get(); // May have been fired with inconsistent values
+
+        int acquiredLocksCount = 0;
+        try {
+            for (int i = 0; i < indices.length; ++i) {
+                stamps[i] = this.stripes[indices[i]].readLock();
+                acquiredLocksCount++;
+            }
+
+            if (trigger.tryFire(this.map))
+                return CompletableFuture.completedFuture(result.apply(trigger));
+
+            // Writers to the condition keys hold their stripes' write locks, so they can't miss
+            // this trigger
+            trigger.setFuture(new CompletableFuture<Map<String, byte[]>>());
+            for (String keyCond : trigger.getConditionKeys())
+                this.waiters.computeIfAbsent(keyCond, k -> ConcurrentHashMap.newKeySet())
+                    .add(trigger);
+        } finally {
+            for (int i = 0; i < acquiredLocksCount; ++i)
+                this.stripes[indices[i]].unlockRead(stamps[i]);
+        }
+
+        // Cancelled or timed out triggers mustn't stay registered
+        GetWhenTrigger       registeredTrigger = trigger;
+        CompletableFuture<T> ret =
+            trigger.getFuture().thenApply(values -> result.apply(registeredTrigger));
+        ret.whenComplete((value, e) -> {
+            if (e != null)
+                this.cancelTrigger(registeredTrigger);
+        });
+        return ret;
+    }
+
+    private void cancelTrigger(GetWhenTrigger trigger) {
+        int[]  indices = this.stripesOf(trigger.getConditionKeys());
+        long[] stamps  = new long[indices.length];
+
+        int acquiredLocksCount = 0;
+        try {
+            for (int i = 0; i < indices.length; ++i) {
+                stamps[i] = this.stripes[indices[i]].writeLock();
+                acquiredLocksCount++;
+            }
+
+            for (String keyCond : trigger.getConditionKeys()) {
+                Set<GetWhenTrigger> keyWaiters = this.waiters.get(keyCond);
+                if (keyWaiters != null && keyWaiters.remove(trigger) && keyWaiters.isEmpty())
+                    this.waiters.remove(keyCond, keyWaiters);
+            }
+        } finally {
+            for (int i = 0; i < acquiredLocksCount; ++i)
+                this.stripes[indices[i]].unlockWrite(stamps[i]);
+        }
+    }
+
+    // Writes the pairs computed (with keys and readKeys locked) from the current values, unless
+    // that returns null. The computed arrays are stored as they are, and keys with a null value are
+    // removed. Returns the written pairs.
+    private Map<String, byte[]> write(Set<String>                   keys,
+                                      Set<String>                   readKeys,
+                                      Supplier<Map<String, byte[]>> computePairs) {
+
+        Set<GetWhenTrigger> satisfied = new HashSet<GetWhenTrigger>();
+        Map<String, byte[]> pairs;
+
+        Set<Integer> writeStripes = new HashSet<Integer>();
+        for (String key : keys)
+            writeStripes.add(this.stripeOf(key));
+
+        while (true) {
+            // The stripes of the keys read by triggers on the written keys (and of their other
+            // conditions) must be locked too. As triggers are only added under a written stripe's
+            // lock, they're stable once locked. Keys that are only read get read locks.
+            TreeSet<Integer> lockedStripes = new TreeSet<Integer>(writeStripes);
+            lockedStripes.addAll(this.waiterStripes(keys));
+            for (String key : readKeys)
+                lockedStripes.add(this.stripeOf(key));
+
+            int[]  indices = lockedStripes.stream().mapToInt(Integer::intValue).toArray();
+            long[] stamps  = new long[indices.length];
+
+            int acquiredLocksCount = 0;
+            try {
+                for (int i = 0; i < indices.length; ++i) {
+                    StampedLock stripe = this.stripes[indices[i]];
+                    if (writeStripes.contains(indices[i]))
+                        stamps[i] = stripe.writeLock();
+                    else
+                        stamps[i] = stripe.readLock();
+                    acquiredLocksCount++;
+                }
+
+                if (!lockedStripes.containsAll(this.waiterStripes(keys)))
+                    continue; // A new trigger appeared before its stripes were locked: retry
+
+                pairs = computePairs.get();
+                if (pairs == null)
+                    return null;
+
+                for (Map.Entry<String, byte[]> pair : pairs.entrySet()) {
+                    if (pair.getValue() == null)
+                        this.map.remove(pair.getKey());
+                    else
+                        this.map.put(pair.getKey(), pair.getValue());
+                }
+
+                for (String key : pairs.keySet())
+                    this.collectSatisfiedTriggers(key, writeStripes, satisfied);
+
+                KeyChangeListener listener = this.changeListener;
+                if (listener != null && !pairs.isEmpty())
+                    listener.keysChanged(pairs);
+                break;
+            } finally {
+                for (int i = 0; i < acquiredLocksCount; ++i)
+                    this.stripes[indices[i]].unlock(stamps[i]);
+            }
+        }
+
+        for (GetWhenTrigger trigger : satisfied)
+            trigger.getFuture().complete(trigger.getValues());
+        return pairs;
+    }
+
+    private void collectSatisfiedTriggers(String              keyCond,
+                                          Set<Integer>        writeStripes,
+                                          Set<GetWhenTrigger> satisfied) {
+
+        Set<GetWhenTrigger> keyWaiters = this.waiters.get(keyCond);
+        if (keyWaiters == null)
+            return;
+
+        for (GetWhenTrigger trigger : keyWaiters) {
+            if (!trigger.tryFire(this.map))
+                continue;
+
+            satisfied.add(trigger);
+            for (String otherKeyCond : trigger.getConditionKeys()) {
+                Set<GetWhenTrigger> otherWaiters = this.waiters.get(otherKeyCond);
+                if (otherWaiters == null)
+                    continue;
+
+                // Empty sets may only be dropped under their stripe's write lock, as triggers
+                // are added to them under read locks
+                otherWaiters.remove(trigger);
+                if (otherWaiters.isEmpty() && writeStripes.contains(this.stripeOf(otherKeyCond)))
+                    this.waiters.remove(otherKeyCond, otherWaiters);
+            }
+        }
+    }
+
+    private Set<Integer> waiterStripes(Set<String> keys) {
+        Set<Integer> ret = new HashSet<Integer>();
+        for (String key : keys) {
+            Set<GetWhenTrigger> keyWaiters = this.waiters.get(key);
+            if (keyWaiters == null)
+                continue;
+
+            for (GetWhenTrigger trigger : keyWaiters) {
+                for (String triggerKey : trigger.getKeys())
+                    ret.add(this.stripeOf(triggerKey));
+                for (String triggerKeyCond : trigger.getConditionKeys())
+                    ret.add(this.stripeOf(triggerKeyCond));
+            }
+        }
+        return ret;
+    }
+
+    private void readInto(Set<String> keys, Map<String, byte[]> ret) {
+        for (String key : keys) {
+            byte[] value = this.map.get(key);
+            if (value != null)
+                ret.put(key, value.clone());
+        }
+    }
+
+    private static Map<String, byte[]> copyValues(Map<String, byte[]> pairs) {
+        return pairs.entrySet().stream().collect(
+            Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+    }
+
+    private int stripeOf(String key) {
+        return Math.abs(key.hashCode() % this.nStripes);
+    }
+
+    private int[] stripesOf(Set<String> keys) {
+        return keys.stream().mapToInt(this::stripeOf).distinct().sorted().toArray();
+    }
+
+    public void setChangeListener(KeyChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    public int getNStripes() {
+        return this.nStripes;
+    }
+
+    // Copies the map into a right-sized one. All stripes are locked, so that no writer uses the old
+    // map, and optimistic readers of the old map fail to validate.
+    private void shrink() {
+        long[] stamps             = new long[this.nStripes];
+        int    acquiredLocksCount = 0;
+        try {
+            for (int i = 0; i < this.nStripes; ++i) {
+                stamps[i] = this.stripes[i].writeLock();
+                acquiredLocksCount++;
+            }
+
+            this.map = new ConcurrentHashMap<String, byte[]>(this.map);
+        } finally {
+            for (int i = 0; i < acquiredLocksCount; ++i)
+                this.stripes[i].unlockWrite(stamps[i]);
+        }
+    }
+
+    private Map<String, byte[]> getMap() {
+        long[] stamps             = new long[this.nStripes];
+        int    acquiredLocksCount = 0;
+        try {
+            for (int i = 0; i < this.nStripes; ++i) {
+                stamps[i] = this.stripes[i].readLock();
+                acquiredLocksCount++;
+            }
+
+            return this.map.entrySet().stream().collect(
+                Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+        } finally {
+            for (int i = 0; i < acquiredLocksCount; ++i)
+                this.stripes[i].unlockRead(stamps[i]);
+        }
+    }
+
+    @Override
+    public Object clone() {
+        return new ConcurrentHashMapBackend(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != this.getClass())
+            return false;
+
+        ConcurrentHashMapBackend backend = (ConcurrentHashMapBackend) o;
+        Map<String, byte[]>      mine    = this.getMap();
+        Map<String, byte[]>      theirs  = backend.getMap();
+
+        if (!mine.keySet().equals(theirs.keySet()))
+            return false;
+        for (Map.Entry<String, byte[]> entry : mine.entrySet())
+            if (!Arrays.equals(entry.getValue(), theirs.get(entry.getKey())))
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentHashMapBackend(" +
+            this.getMap()
+                .entrySet()
+                .stream()
+                .collect(Collectors.toMap(e -> e.getKey(), e -> Arrays.toString(e.getValue())))
+                .toString() +
+            ")";
+    }
+}
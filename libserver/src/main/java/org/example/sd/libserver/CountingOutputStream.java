@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Counts the writes that reach the socket (each one is a write() system call)
+public class CountingOutputStream extends FilterOutputStream {
+    private final WriteStatistics statistics;
+
+    public CountingOutputStream(OutputStream out, WriteStatistics statistics) {
+        super(out);
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.out.write(b);
+        this.statistics.recordWrite(1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        this.out.write(bytes, offset, length);
+        this.statistics.recordWrite(length);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CountingOutputStream(%s)", this.statistics.toString());
+    }
+}
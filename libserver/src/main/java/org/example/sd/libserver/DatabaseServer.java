@@ -22,46 +22,102 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.example.sd.common.AddRequestMessage;
+import org.example.sd.common.AppendRequestMessage;
 import org.example.sd.common.Buffer;
 import org.example.sd.common.BufferException;
+import org.example.sd.common.CancelRequestMessage;
+import org.example.sd.common.ConditionalPutResponseMessage;
+import org.example.sd.common.DeleteRequestMessage;
+import org.example.sd.common.ErrorResponseMessage;
+import org.example.sd.common.ExpiringMultiPutRequestMessage;
+import org.example.sd.common.ExpiringPutRequestMessage;
+import org.example.sd.common.GetRangeRequestMessage;
 import org.example.sd.common.GetRequestMessage;
 import org.example.sd.common.GetResponseMessage;
+import org.example.sd.common.GetWhenAbortedResponseMessage;
 import org.example.sd.common.GetWhenRequestMessage;
+import org.example.sd.common.KeyChangedMessage;
 import org.example.sd.common.KeyValueDB;
+import org.example.sd.common.LongResponseMessage;
 import org.example.sd.common.Message;
 import org.example.sd.common.MultiGetRequestMessage;
 import org.example.sd.common.MultiGetResponseMessage;
+import org.example.sd.common.MultiDeleteRequestMessage;
+import org.example.sd.common.MultiGetWhenRequestMessage;
+import org.example.sd.common.MultiPutIfRequestMessage;
 import org.example.sd.common.MultiPutRequestMessage;
+import org.example.sd.common.PutIfRequestMessage;
+import org.example.sd.common.PutRangeRequestMessage;
 import org.example.sd.common.PutRequestMessage;
 import org.example.sd.common.PutResponseMessage;
 import org.example.sd.common.RegisterAuthenticateRequestMessage;
 import org.example.sd.common.RegisterAuthenticateResponseMessage;
 import org.example.sd.common.RegistrationAuthenticationStatus;
+import org.example.sd.common.SubscribeRequestMessage;
+import org.example.sd.common.UnsubscribeRequestMessage;
 
 public class DatabaseServer {
-    private int            port;
-    private SessionManager sessions;
-    private ThreadPool     threadPool;
-    private KeyValueDB     backend;
+    protected static final int  ACCEPT_BACKLOG = 4096;
+    protected static final int  FLUSH_BYTES    = 64 * 1024;
+    protected static final long FLUSH_NANOS    = 200_000; // 200 us
+
+    protected int                 port;
+    protected SessionManager      sessions;
+    protected ThreadPool          threadPool;
+    protected KeyValueDB          backend;
+    protected WriteStatistics     writeStatistics;
+    protected SubscriptionManager subscriptions;
+
+    // getWhen / multiGetWhen requests still waiting, per connection (identified by its send buffer)
+    private Lock                                            pendingGetWhensLock;
+    private Map<Buffer, Map<Integer, CompletableFuture<?>>> pendingGetWhens;
 
     public DatabaseServer(int port, int maxConnections, KeyValueDB backend) {
-        this.port       = port;
-        this.sessions   = new SessionManager(maxConnections);
-        this.threadPool = new ThreadPool();
-        this.backend    = backend;
+        this(port, new SessionManager(maxConnections), backend);
+    }
+
+    public DatabaseServer(int port, SessionManager sessions, KeyValueDB backend) {
+        this.port            = port;
+        this.sessions        = sessions;
+        this.threadPool      = new ThreadPool();
+        this.backend         = backend;
+        this.writeStatistics = new WriteStatistics();
+        this.subscriptions   = new SubscriptionManager();
+
+        if (backend instanceof WatchableBackend)
+            ((WatchableBackend) backend).setChangeListener(this.subscriptions);
+
+        this.pendingGetWhensLock = new ReentrantLock();
+        this.pendingGetWhens =
+            new IdentityHashMap<Buffer, Map<Integer, CompletableFuture<?>>>();
     }
 
     public void run() throws IOException {
-        ServerSocket serverSocket = new ServerSocket(this.port);
+        ServerSocket serverSocket = new ServerSocket(this.port, DatabaseServer.ACCEPT_BACKLOG);
         while (true) {
             Socket socket     = serverSocket.accept();
             Buffer sendBuffer = new Buffer();
 
-            Thread readThread = new Thread(() -> {
+            Thread readThread = this.newConnectionThread(() -> {
                 String[] username = new String[1];
                 try {
                     this.connectionReadLoop(socket, sendBuffer, username);
@@ -71,11 +127,12 @@ public class DatabaseServer {
                 }
 
                 sendBuffer.shutdown();
+                this.connectionClosed(sendBuffer);
                 if (username[0] != null)
                     this.sessions.releaseSession(username[0]);
             });
 
-            Thread writeThread = new Thread(() -> {
+            Thread writeThread = this.newConnectionThread(() -> {
                 try {
                     this.connectionWriteLoop(socket, sendBuffer);
                 } catch (EOFException e) {
@@ -90,6 +147,10 @@ public class DatabaseServer {
         }
     }
 
+    protected Thread newConnectionThread(Runnable r) {
+        return new Thread(r);
+    }
+
     private void connectionReadLoop(Socket socket, Buffer sendBuffer, String[] username)
         throws IOException {
 
@@ -102,23 +163,13 @@ public class DatabaseServer {
             if (message instanceof RegisterAuthenticateRequestMessage) {
                 RegisterAuthenticateRequestMessage castedMessage =
                     (RegisterAuthenticateRequestMessage) message;
-                RegistrationAuthenticationStatus status;
 
-                try {
-                    boolean newUser = this.sessions.acquireSession(castedMessage.getUsername(),
-                                                                   castedMessage.getPassword());
+                RegistrationAuthenticationStatus status = this.authenticate(castedMessage);
+                if (status == RegistrationAuthenticationStatus.SUCCESS ||
+                    status == RegistrationAuthenticationStatus.SUCCESS_NEW_USER) {
 
                     stop        = true;
                     username[0] = castedMessage.getUsername();
-                    if (newUser)
-                        status = RegistrationAuthenticationStatus.SUCCESS_NEW_USER;
-                    else
-                        status = RegistrationAuthenticationStatus.SUCCESS;
-                } catch (SessionException e) {
-                    if (e.getMessage().contains("authenticated"))
-                        status = RegistrationAuthenticationStatus.EXISTING_LOGIN;
-                    else
-                        status = RegistrationAuthenticationStatus.WRONG_CREDENTIALS;
                 }
 
                 try {
@@ -133,11 +184,34 @@ public class DatabaseServer {
         // Handle database requests
         while (true) {
             Message message = Message.deserialize(in);
-            this.threadPool.addTask(() -> executeMessage(message, sendBuffer));
+            this.submitMessage(message, sendBuffer);
+        }
+    }
+
+    protected void submitMessage(Message message, Buffer sendBuffer) {
+        this.threadPool.addTask(() -> this.executeMessage(message, sendBuffer));
+    }
+
+    protected RegistrationAuthenticationStatus
+        authenticate(RegisterAuthenticateRequestMessage message) {
+
+        try {
+            boolean newUser =
+                this.sessions.acquireSession(message.getUsername(), message.getPassword());
+
+            if (newUser)
+                return RegistrationAuthenticationStatus.SUCCESS_NEW_USER;
+            else
+                return RegistrationAuthenticationStatus.SUCCESS;
+        } catch (SessionException e) {
+            if (e.getMessage().contains("authenticated"))
+                return RegistrationAuthenticationStatus.EXISTING_LOGIN;
+            else
+                return RegistrationAuthenticationStatus.WRONG_CREDENTIALS;
         }
     }
 
-    private void executeMessage(Message message, Buffer sendBuffer) {
+    protected void executeMessage(Message message, Buffer sendBuffer) {
         Message replyMessage;
 
         if (message instanceof PutRequestMessage) {
@@ -160,12 +234,143 @@ public class DatabaseServer {
             Map<String, byte[]>    map           = this.backend.multiGet(castedMessage.getKeys());
             replyMessage = new MultiGetResponseMessage(castedMessage.getId(), map);
 
+        } else if (message instanceof ExpiringPutRequestMessage) {
+            ExpiringPutRequestMessage castedMessage = (ExpiringPutRequestMessage) message;
+            try {
+                this.backend.put(castedMessage.getKey(),
+                                 castedMessage.getValue(),
+                                 castedMessage.getTtlMillis());
+                replyMessage = new PutResponseMessage(castedMessage.getId());
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                replyMessage = new ErrorResponseMessage(castedMessage.getId(), e.getMessage());
+            }
+
+        } else if (message instanceof ExpiringMultiPutRequestMessage) {
+            ExpiringMultiPutRequestMessage castedMessage = (ExpiringMultiPutRequestMessage) message;
+            try {
+                this.backend.multiPut(castedMessage.getPairs(), castedMessage.getTtlMillis());
+                replyMessage = new PutResponseMessage(castedMessage.getId());
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                replyMessage = new ErrorResponseMessage(castedMessage.getId(), e.getMessage());
+            }
+
+        } else if (message instanceof PutIfRequestMessage) {
+            PutIfRequestMessage castedMessage = (PutIfRequestMessage) message;
+            boolean             applied       = this.backend.putIf(castedMessage.getKey(),
+                                                             castedMessage.getExpected(),
+                                                             castedMessage.getValue());
+            replyMessage = new ConditionalPutResponseMessage(castedMessage.getId(), applied);
+
+        } else if (message instanceof MultiPutIfRequestMessage) {
+            MultiPutIfRequestMessage castedMessage = (MultiPutIfRequestMessage) message;
+            boolean                  applied       =
+                this.backend.multiPutIf(castedMessage.getPreconditions(), castedMessage.getPairs());
+            replyMessage = new ConditionalPutResponseMessage(castedMessage.getId(), applied);
+
+        } else if (message instanceof AddRequestMessage) {
+            AddRequestMessage castedMessage = (AddRequestMessage) message;
+            try {
+                long value = this.backend.add(castedMessage.getKey(), castedMessage.getDelta());
+                replyMessage = new LongResponseMessage(castedMessage.getId(), value);
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                replyMessage = new ErrorResponseMessage(castedMessage.getId(), e.getMessage());
+            }
+
+        } else if (message instanceof AppendRequestMessage) {
+            AppendRequestMessage castedMessage = (AppendRequestMessage) message;
+            try {
+                int length = this.backend.append(castedMessage.getKey(), castedMessage.getSuffix());
+                replyMessage = new LongResponseMessage(castedMessage.getId(), length);
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                replyMessage = new ErrorResponseMessage(castedMessage.getId(), e.getMessage());
+            }
+
+        } else if (message instanceof GetRangeRequestMessage) {
+            GetRangeRequestMessage castedMessage = (GetRangeRequestMessage) message;
+            try {
+                byte[] value = this.backend.getRange(castedMessage.getKey(),
+                                                     castedMessage.getOffset(),
+                                                     castedMessage.getLength());
+                replyMessage = new GetResponseMessage(castedMessage.getId(), value);
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                replyMessage = new ErrorResponseMessage(castedMessage.getId(), e.getMessage());
+            }
+
+        } else if (message instanceof PutRangeRequestMessage) {
+            PutRangeRequestMessage castedMessage = (PutRangeRequestMessage) message;
+            try {
+                int length = this.backend.putRange(castedMessage.getKey(),
+                                                   castedMessage.getOffset(),
+                                                   castedMessage.getBytes());
+                replyMessage = new LongResponseMessage(castedMessage.getId(), length);
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                replyMessage = new ErrorResponseMessage(castedMessage.getId(), e.getMessage());
+            }
+
+        } else if (message instanceof DeleteRequestMessage) {
+            DeleteRequestMessage castedMessage = (DeleteRequestMessage) message;
+            try {
+                boolean deleted = this.backend.delete(castedMessage.getKey());
+                replyMessage    = new LongResponseMessage(castedMessage.getId(), deleted ? 1 : 0);
+            } catch (UnsupportedOperationException e) {
+                replyMessage = new ErrorResponseMessage(castedMessage.getId(), e.getMessage());
+            }
+
+        } else if (message instanceof MultiDeleteRequestMessage) {
+            MultiDeleteRequestMessage castedMessage = (MultiDeleteRequestMessage) message;
+            try {
+                int deleted  = this.backend.multiDelete(castedMessage.getKeys());
+                replyMessage = new LongResponseMessage(castedMessage.getId(), deleted);
+            } catch (UnsupportedOperationException e) {
+                replyMessage = new ErrorResponseMessage(castedMessage.getId(), e.getMessage());
+            }
+
         } else if (message instanceof GetWhenRequestMessage) {
             GetWhenRequestMessage castedMessage = (GetWhenRequestMessage) message;
-            byte[]                value         = this.backend.getWhen(castedMessage.getKey(),
+            this.executeWaitingRequest(
+                castedMessage.getId(),
+                castedMessage.getTimeoutMillis(),
+                sendBuffer,
+                backend -> backend.getWhenAsync(castedMessage.getKey(),
                                                 castedMessage.getKeyCond(),
-                                                castedMessage.getValueCond());
-            replyMessage = new GetResponseMessage(castedMessage.getId(), value);
+                                                castedMessage.getValueCond()),
+                () -> this.backend.getWhen(castedMessage.getKey(),
+                                           castedMessage.getKeyCond(),
+                                           castedMessage.getValueCond()),
+                value -> new GetResponseMessage(castedMessage.getId(), value));
+            return;
+
+        } else if (message instanceof MultiGetWhenRequestMessage) {
+            MultiGetWhenRequestMessage castedMessage = (MultiGetWhenRequestMessage) message;
+            this.executeWaitingRequest(
+                castedMessage.getId(),
+                castedMessage.getTimeoutMillis(),
+                sendBuffer,
+                backend -> backend.multiGetWhenAsync(castedMessage.getKeys(),
+                                                     castedMessage.getConditions(),
+                                                     castedMessage.isAllOf()),
+                () -> this.backend.multiGetWhen(castedMessage.getKeys(),
+                                                castedMessage.getConditions(),
+                                                castedMessage.isAllOf()),
+                map -> new MultiGetResponseMessage(castedMessage.getId(), map));
+            return;
+
+        } else if (message instanceof SubscribeRequestMessage) {
+            this.executeSubscribe((SubscribeRequestMessage) message, sendBuffer);
+            return;
+
+        } else if (message instanceof UnsubscribeRequestMessage) {
+            UnsubscribeRequestMessage castedMessage = (UnsubscribeRequestMessage) message;
+            this.subscriptions.unsubscribe(sendBuffer, castedMessage.getSubscriptionId());
+            return;
+
+        } else if (message instanceof CancelRequestMessage) {
+            CancelRequestMessage castedMessage = (CancelRequestMessage) message;
+            CompletableFuture<?> future =
+                this.getPendingGetWhen(sendBuffer, castedMessage.getRequestId());
+            if (future != null)
+                future.cancel(false);
+            return;
 
         } else {
             System.err.printf("Invalid message received: %s\n", message.getClass().getSimpleName());
@@ -177,21 +382,212 @@ public class DatabaseServer {
         } catch (BufferException e) {} // Unreachable
     }
 
+    // Runs a getWhen-like request, whose reply is sent once its conditions hold
+    private <T> void
+        executeWaitingRequest(int                                                 id,
+                              long                                                timeoutMillis,
+                              Buffer                                              sendBuffer,
+                              Function<AsyncGetWhenBackend, CompletableFuture<T>> async,
+                              Supplier<T>                                         blocking,
+                              Function<T, Message>                                reply) {
+
+        boolean              isBlocking = !(this.backend instanceof AsyncGetWhenBackend);
+        CompletableFuture<T> future;
+        if (isBlocking)
+            future = new CompletableFuture<T>();
+        else
+            future = async.apply((AsyncGetWhenBackend) this.backend);
+
+        if (timeoutMillis > 0)
+            future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+
+        this.addPendingGetWhen(sendBuffer, id, future);
+        future.whenComplete((value, e) -> {
+            this.removePendingGetWhen(sendBuffer, id);
+
+            Message replyMessage;
+            if (e == null) {
+                replyMessage = reply.apply(value);
+            } else {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (cause instanceof IllegalArgumentException ||
+                    cause instanceof UnsupportedOperationException) {
+                    replyMessage = new ErrorResponseMessage(id, cause.getMessage());
+                } else {
+                    if (!(cause instanceof TimeoutException ||
+                          cause instanceof CancellationException))
+                        System.err.printf("getWhen failed: %s\n", cause.getMessage());
+
+                    replyMessage =
+                        new GetWhenAbortedResponseMessage(id, cause instanceof TimeoutException);
+                }
+            }
+
+            try {
+                sendBuffer.send(replyMessage);
+            } catch (BufferException ex) {} // Connection closed
+        });
+
+        // The write that satisfies the condition sends the reply, so don't park this thread,
+        // unless the backend can only wait synchronously (the reply may be sent before it returns)
+        if (isBlocking) {
+            try {
+                future.complete(blocking.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void executeSubscribe(SubscribeRequestMessage message, Buffer sendBuffer) {
+        if (!(this.backend instanceof WatchableBackend)) {
+            try {
+                sendBuffer.send(new ErrorResponseMessage(message.getId(),
+                                                         "Backend does not support subscriptions"));
+            } catch (BufferException e) {} // Connection closed
+            return;
+        }
+
+        // Register before reading the initial values, so that no change is missed in between
+        SubscriptionQueue queue =
+            this.subscriptions.subscribe(sendBuffer, message.getId(), message.getKeys());
+        Map<String, byte[]> map = this.backend.multiGet(message.getKeys());
+
+        try {
+            sendBuffer.send(new MultiGetResponseMessage(message.getId(), map));
+            queue.start();
+        } catch (BufferException e) {
+            // The connection was closed, possibly before its subscriptions were dropped
+            this.subscriptions.unsubscribe(sendBuffer, message.getId());
+        }
+    }
+
+    private void addPendingGetWhen(Buffer sendBuffer, int id, CompletableFuture<?> future) {
+        this.pendingGetWhensLock.lock();
+        try {
+            if (!future.isDone())
+                this.pendingGetWhens.computeIfAbsent(sendBuffer, b -> new HashMap<>())
+                    .put(id, future);
+        } finally {
+            this.pendingGetWhensLock.unlock();
+        }
+    }
+
+    private void removePendingGetWhen(Buffer sendBuffer, int id) {
+        this.pendingGetWhensLock.lock();
+        try {
+            Map<Integer, CompletableFuture<?>> connectionGetWhens =
+                this.pendingGetWhens.get(sendBuffer);
+            if (connectionGetWhens != null) {
+                connectionGetWhens.remove(id);
+                if (connectionGetWhens.isEmpty())
+                    this.pendingGetWhens.remove(sendBuffer);
+            }
+        } finally {
+            this.pendingGetWhensLock.unlock();
+        }
+    }
+
+    private CompletableFuture<?> getPendingGetWhen(Buffer sendBuffer, int id) {
+        this.pendingGetWhensLock.lock();
+        try {
+            Map<Integer, CompletableFuture<?>> connectionGetWhens =
+                this.pendingGetWhens.get(sendBuffer);
+            return connectionGetWhens == null ? null : connectionGetWhens.get(id);
+        } finally {
+            this.pendingGetWhensLock.unlock();
+        }
+    }
+
+    // Called once a connection is closed, so that its waiters and subscriptions don't stay around
+    protected void connectionClosed(Buffer sendBuffer) {
+        this.cancelPendingGetWhens(sendBuffer);
+        this.subscriptions.unsubscribeAll(sendBuffer);
+    }
+
+    private void cancelPendingGetWhens(Buffer sendBuffer) {
+        List<CompletableFuture<?>> futures;
+
+        this.pendingGetWhensLock.lock();
+        try {
+            Map<Integer, CompletableFuture<?>> connectionGetWhens =
+                this.pendingGetWhens.remove(sendBuffer);
+            if (connectionGetWhens == null)
+                return;
+            futures = new ArrayList<CompletableFuture<?>>(connectionGetWhens.values());
+        } finally {
+            this.pendingGetWhensLock.unlock();
+        }
+
+        for (CompletableFuture<?> future : futures)
+            future.cancel(false);
+    }
+
+    public int getSubscriptions() {
+        return this.subscriptions.getSubscriptions();
+    }
+
+    public int getPendingGetWhens() {
+        this.pendingGetWhensLock.lock();
+        try {
+            return this.pendingGetWhens.values().stream().mapToInt(Map::size).sum();
+        } finally {
+            this.pendingGetWhensLock.unlock();
+        }
+    }
+
     private void connectionWriteLoop(Socket socket, Buffer sendBuffer) throws IOException {
+        OutputStream socketOut =
+            new CountingOutputStream(socket.getOutputStream(), this.writeStatistics);
         DataOutputStream out =
-            new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            new DataOutputStream(new BufferedOutputStream(socketOut, DatabaseServer.FLUSH_BYTES));
 
+        // Serialize every queued response back to back, and only flush once the queue drains
+        // (or responses have been held for too long). The BufferedOutputStream flushes on its own
+        // when FLUSH_BYTES are reached.
+        int  batchMessages = 0;
+        long batchStart    = 0;
         while (true) {
+            List<Message> messages;
             try {
-                Message message = sendBuffer.receive();
-                message.serialize(out);
-                out.flush();
+                if (batchMessages == 0)
+                    messages = sendBuffer.receiveAll();
+                else
+                    messages = sendBuffer.tryReceiveAll();
             } catch (BufferException e) {
                 return;
             }
+
+            if (batchMessages == 0)
+                batchStart = System.nanoTime();
+
+            for (Message message : messages) {
+                message.serialize(out);
+                this.messageWritten(sendBuffer, message);
+            }
+            batchMessages += messages.size();
+
+            long batchTime = System.nanoTime() - batchStart;
+            if (messages.isEmpty() || batchTime >= DatabaseServer.FLUSH_NANOS) {
+                out.flush();
+                this.writeStatistics.recordBatch(batchMessages);
+                batchMessages = 0;
+            }
         }
     }
 
+    // Subscriptions only hand notifications to a connection as it writes the previous ones
+    protected void messageWritten(Buffer sendBuffer, Message message) {
+        if (message instanceof KeyChangedMessage)
+            this.subscriptions.notificationWritten(
+                sendBuffer,
+                ((KeyChangedMessage) message).getSubscriptionId());
+    }
+
+    public WriteStatistics getWriteStatistics() {
+        return this.writeStatistics;
+    }
+
     @Override
     public String toString() {
         return String.format("DatabaseServer(backend=%s, port=%d)",
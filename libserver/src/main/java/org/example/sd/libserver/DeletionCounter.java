@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.example.sd.libserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Counts the keys deleted from a hash map since it was last rebuilt. The tables of HashMap and
+// ConcurrentHashMap never shrink, so a map that lost most of its keys is copied into a new one,
+// sized for the remaining keys. That is only worth it once the deletions since the last rebuild are
+// many, and several times the remaining keys, so that copying them is amortized over deletions.
+public class DeletionCounter {
+    private static final int MIN_DELETIONS = 4096;
+    private static final int SHRINK_FACTOR = 4;
+
+    private AtomicInteger deletions;
+
+    public DeletionCounter() {
+        this.deletions = new AtomicInteger(0);
+    }
+
+    // Counts deleted keys from a map now holding size keys, and returns whether it should be
+    // rebuilt. Only one of many concurrent callers is told to rebuild it.
+    public boolean deleted(int deleted, int size) {
+        int total = this.deletions.addAndGet(deleted);
+        if (total < DeletionCounter.MIN_DELETIONS || total < DeletionCounter.SHRINK_FACTOR * size)
+            return false;
+
+        return this.deletions.compareAndSet(total, 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeletionCounter(deletions=%d)", this.deletions.get());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EvictionStatistics {
+    private final AtomicLong evictions;
+    private final AtomicLong evictedBytes;
+
+    public EvictionStatistics() {
+        this.evictions    = new AtomicLong();
+        this.evictedBytes = new AtomicLong();
+    }
+
+    public void recordEviction(long bytes) {
+        this.evictions.incrementAndGet();
+        this.evictedBytes.addAndGet(bytes);
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public long getEvictedBytes() {
+        return this.evictedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EvictionStatistics(evictions=%d, evictedBytes=%d)",
+                             this.getEvictions(),
+                             this.getEvictedBytes());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+// Count-min sketch estimating how often keys were seen, with 4-bit counters (TinyLFU, Einziger et
+// al.). Each key has DEPTH counters, in different words of the table, and its frequency is the
+// smallest of them. After SAMPLE_FACTOR additions per word, every counter is halved, so that old
+// popularity fades. Not thread-safe.
+public class FrequencySketch {
+    private static final int    DEPTH         = 4;
+    private static final int    SAMPLE_FACTOR = 10;
+    private static final int    MAX_WORDS     = 1 << 26;
+    private static final long   RESET_MASK    = 0x7777777777777777L;
+    private static final long[] SEEDS         = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                                                  0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private long[] table; // 16 counters per word
+    private int    additions;
+    private int    sampleSize;
+
+    public FrequencySketch(int capacity) {
+        this.table      = new long[FrequencySketch.words(capacity)];
+        this.additions  = 0;
+        this.sampleSize = FrequencySketch.SAMPLE_FACTOR * this.table.length;
+    }
+
+    // Grows the table (losing the counts) if it's too small for capacity distinct keys
+    public void ensureCapacity(int capacity) {
+        int words = FrequencySketch.words(capacity);
+        if (words > this.table.length) {
+            this.table      = new long[words];
+            this.additions  = 0;
+            this.sampleSize = FrequencySketch.SAMPLE_FACTOR * words;
+        }
+    }
+
+    public int frequency(Object key) {
+        int hash  = FrequencySketch.spread(key.hashCode());
+        int start = (hash & 3) << 2;
+
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < FrequencySketch.DEPTH; ++i) {
+            int offset = (start + i) << 2;
+            int count  = (int) ((this.table[this.indexOf(hash, i)] >>> offset) & 0xf);
+            frequency  = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    public void increment(Object key) {
+        int hash  = FrequencySketch.spread(key.hashCode());
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < FrequencySketch.DEPTH; ++i) {
+            int index  = this.indexOf(hash, i);
+            int offset = (start + i) << 2;
+            if (((this.table[index] >>> offset) & 0xf) < 0xf) {
+                this.table[index] += 1L << offset;
+                added              = true;
+            }
+        }
+
+        if (added && ++this.additions >= this.sampleSize)
+            this.reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < this.table.length; ++i)
+            this.table[i] = (this.table[i] >>> 1) & FrequencySketch.RESET_MASK;
+        this.additions /= 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + FrequencySketch.SEEDS[i]) * FrequencySketch.SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & (this.table.length - 1);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int words(int capacity) {
+        return Integer.highestOneBit(Math.clamp(capacity, 16, FrequencySketch.MAX_WORDS) - 1) << 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FrequencySketch(words=%d, additions=%d)",
+                             this.table.length,
+                             this.additions);
+    }
+}
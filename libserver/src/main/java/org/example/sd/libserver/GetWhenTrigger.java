@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+
+// A getWhen (or multiGetWhen) waiting for its conditions to hold: all of them, or any of them. The
+// writer that satisfies the conditions fires the trigger, handing it the values of the requested
+// keys at that moment, so that the waiter doesn't need to look at the database again (by then, it
+// may have changed). A null condition value holds while its key doesn't exist. Must be guarded by
+// the database's lock(s).
+class GetWhenTrigger {
+    private final Set<String>          keys;
+    private final Map<String, byte[]>  conditions;
+    private final Map<String, Integer> conditionHashes;
+    private final boolean              allOf;
+
+    private Map<String, byte[]>                    values;
+    private boolean                                fired;
+    private Condition                              condition;
+    private CompletableFuture<Map<String, byte[]>> future;
+
+    public GetWhenTrigger(String key, String keyCond, byte[] valueCond) {
+        this(Set.of(key), Collections.singletonMap(keyCond, valueCond), true);
+    }
+
+    public GetWhenTrigger(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+        this.keys            = keys;
+        this.conditions      = new HashMap<String, byte[]>();
+        this.conditionHashes = new HashMap<String, Integer>();
+        this.allOf           = allOf;
+
+        for (Map.Entry<String, byte[]> condition : conditions.entrySet()) {
+            byte[] value = condition.getValue();
+            this.conditions.put(condition.getKey(), value == null ? null : value.clone());
+            this.conditionHashes.put(condition.getKey(), Arrays.hashCode(condition.getValue()));
+        }
+
+        this.values    = null;
+        this.fired     = false;
+        this.condition = null;
+        this.future    = null;
+    }
+
+    public boolean tryFire(Map<String, byte[]> map) {
+        if (this.fired || !this.conditionsHold(map))
+            return false;
+
+        this.values = new HashMap<String, byte[]>();
+        for (String key : this.keys) {
+            byte[] value = map.get(key);
+            if (value != null)
+                this.values.put(key, value.clone());
+        }
+
+        this.fired = true;
+        return true;
+    }
+
+    private boolean conditionsHold(Map<String, byte[]> map) {
+        for (Map.Entry<String, byte[]> condition : this.conditions.entrySet()) {
+            byte[] currentValue = map.get(condition.getKey());
+            boolean holds       =
+                Arrays.hashCode(currentValue) == this.conditionHashes.get(condition.getKey()) &&
+                Arrays.equals(currentValue, condition.getValue());
+
+            if (holds != this.allOf)
+                return holds;
+        }
+        return this.allOf;
+    }
+
+    public Set<String> getKeys() {
+        return this.keys;
+    }
+
+    public Set<String> getConditionKeys() {
+        return this.conditions.keySet();
+    }
+
+    public int getConditionHash(String keyCond) {
+        return this.conditionHashes.get(keyCond);
+    }
+
+    public boolean isAllOf() {
+        return this.allOf;
+    }
+
+    public Map<String, byte[]> getValues() {
+        return this.values;
+    }
+
+    // For single key triggers
+    public byte[] getValue() {
+        return this.values.get(this.keys.iterator().next());
+    }
+
+    public boolean isFired() {
+        return this.fired;
+    }
+
+    // Condition the waiter is parked on, if it should be signaled individually when fired
+    public Condition getCondition() {
+        return this.condition;
+    }
+
+    public void setCondition(Condition condition) {
+        this.condition = condition;
+    }
+
+    // Future of an asynchronous getWhen. Must be completed (with getValues()) outside of the
+    // database's lock, as completing it runs the waiter's continuation.
+    public CompletableFuture<Map<String, byte[]>> getFuture() {
+        return this.future;
+    }
+
+    public void setFuture(CompletableFuture<Map<String, byte[]>> future) {
+        this.future = future;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GetWhenTrigger(keys=%s, conditionKeys=%s, allOf=%b, fired=%b)",
+                             this.keys.toString(),
+                             this.conditions.keySet().toString(),
+                             this.allOf,
+                             this.fired);
+    }
+}
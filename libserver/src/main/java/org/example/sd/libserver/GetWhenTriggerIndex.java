@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Waiting getWhen triggers, indexed by (keyCond, hash of valueCond), so that a write only looks at
+// the triggers it may fire. Triggers with many conditions are indexed under each of them, as any of
+// the keys changing may satisfy them. Must be guarded by the database's lock.
+//
+// Buckets are insertion-ordered sets, so that removing a trigger from a bucket that thousands of
+// waiters share doesn't scan it.
+class GetWhenTriggerIndex {
+    private Map<String, Map<Integer, Set<GetWhenTrigger>>> triggers;
+    private int                                            size;
+
+    public GetWhenTriggerIndex() {
+        this.triggers = new HashMap<String, Map<Integer, Set<GetWhenTrigger>>>();
+        this.size     = 0;
+    }
+
+    public void add(GetWhenTrigger trigger) {
+        for (String keyCond : trigger.getConditionKeys())
+            this.triggers.computeIfAbsent(keyCond, k -> new HashMap<>())
+                .computeIfAbsent(trigger.getConditionHash(keyCond), h -> new LinkedHashSet<>())
+                .add(trigger);
+        this.size++;
+    }
+
+    public boolean remove(GetWhenTrigger trigger) {
+        boolean removed = false;
+        for (String keyCond : trigger.getConditionKeys())
+            removed |= this.removeFromBucket(keyCond, trigger.getConditionHash(keyCond), trigger);
+
+        if (removed)
+            this.size--;
+        return removed;
+    }
+
+    // Fires (and removes) the triggers satisfied by the current value of key (null if deleted)
+    public List<GetWhenTrigger> fire(String key, Map<String, byte[]> map) {
+        List<GetWhenTrigger> ret = new ArrayList<GetWhenTrigger>();
+
+        Map<Integer, Set<GetWhenTrigger>> keyTriggers = this.triggers.get(key);
+        if (keyTriggers == null)
+            return ret;
+
+        int                 hash   = Arrays.hashCode(map.get(key));
+        Set<GetWhenTrigger> bucket = keyTriggers.get(hash);
+        if (bucket == null)
+            return ret;
+
+        // Split the bucket in one pass. Only triggers with other conditions are in other buckets.
+        Iterator<GetWhenTrigger> i = bucket.iterator();
+        while (i.hasNext()) {
+            GetWhenTrigger trigger = i.next();
+            if (!trigger.tryFire(map))
+                continue;
+
+            i.remove();
+            ret.add(trigger);
+            if (trigger.getConditionKeys().size() > 1)
+                for (String keyCond : trigger.getConditionKeys())
+                    if (!keyCond.equals(key))
+                        this.removeFromBucket(keyCond, trigger.getConditionHash(keyCond), trigger);
+        }
+
+        this.size -= ret.size();
+        if (bucket.isEmpty())
+            this.removeBucket(key, keyTriggers, hash);
+        return ret;
+    }
+
+    // Triggers that the current value of key (null if deleted) may satisfy, without firing them
+    public List<GetWhenTrigger> candidates(String key, Map<String, byte[]> map) {
+        Map<Integer, Set<GetWhenTrigger>> keyTriggers = this.triggers.get(key);
+        if (keyTriggers == null)
+            return List.of();
+
+        Set<GetWhenTrigger> bucket = keyTriggers.get(Arrays.hashCode(map.get(key)));
+        return bucket == null ? List.of() : new ArrayList<GetWhenTrigger>(bucket);
+    }
+
+    // Triggers with a condition on keyCond, whatever its value
+    public List<GetWhenTrigger> get(String keyCond) {
+        Map<Integer, Set<GetWhenTrigger>> keyTriggers = this.triggers.get(keyCond);
+        if (keyTriggers == null)
+            return List.of();
+
+        List<GetWhenTrigger> ret = new ArrayList<GetWhenTrigger>();
+        for (Set<GetWhenTrigger> bucket : keyTriggers.values())
+            ret.addAll(bucket);
+        return ret;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private boolean removeFromBucket(String keyCond, int hash, GetWhenTrigger trigger) {
+        Map<Integer, Set<GetWhenTrigger>> keyTriggers = this.triggers.get(keyCond);
+        if (keyTriggers == null)
+            return false;
+
+        Set<GetWhenTrigger> bucket = keyTriggers.get(hash);
+        if (bucket == null || !bucket.remove(trigger))
+            return false;
+
+        if (bucket.isEmpty())
+            this.removeBucket(keyCond, keyTriggers, hash);
+        return true;
+    }
+
+    private void
+        removeBucket(String keyCond, Map<Integer, Set<GetWhenTrigger>> keyTriggers, int hash) {
+
+        keyTriggers.remove(hash);
+        if (keyTriggers.isEmpty())
+            this.triggers.remove(keyCond);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GetWhenTriggerIndex(keys=%d, size=%d)",
+                             this.triggers.size(),
+                             this.size);
+    }
+}
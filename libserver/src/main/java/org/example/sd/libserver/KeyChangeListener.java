@@ -0,0 +1,26 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.Map;
+
+// Called by a backend after every put / multiPut, while it still holds the written keys' locks, so
+// that changes to a key are reported in the order they were applied. It must not block. The values
+// may be the backend's own arrays, so they must be copied if kept.
+public interface KeyChangeListener {
+    public void keysChanged(Map<String, byte[]> changes);
+}
@@ -16,23 +16,19 @@
 
 package org.example.sd.libserver;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.locks.Condition;
 
 import org.example.sd.common.KeyValueDB;
 
+// Each waiting thread parks on its own condition, and is only signaled when its trigger is fired
 public class MultiConditionHashMapBackend extends SingleLockHashMapBackend {
-    private Map<String, Condition> databaseChangedConditions;
-    private Map<String, Set<Long>> waitingTriggers;
+    private GetWhenTriggerIndex waitingTriggers;
 
     public MultiConditionHashMapBackend() {
         super();
-        this.databaseChangedConditions = new HashMap<String, Condition>();
-        this.waitingTriggers           = new HashMap<String, Set<Long>>();
+        this.waitingTriggers = new GetWhenTriggerIndex();
     }
 
     public MultiConditionHashMapBackend(MultiConditionHashMapBackend database) {
@@ -40,56 +36,39 @@ public class MultiConditionHashMapBackend extends SingleLockHashMapBackend {
         this.map = database.getMap();
     }
 
-    protected void summonTriggersAfterPut(String key, byte[] value) {
-        Set<Long> keyTriggers = this.waitingTriggers.get(key);
-        if (keyTriggers != null) {
-            this.unsignaledTriggers.addAll(keyTriggers);
-            this.databaseChangedConditions.get(key).signalAll();
-        }
+    protected List<GetWhenTrigger> summonTriggersAfterPut(String key, byte[] value) {
+        return this.summonTriggers(key);
     }
 
-    protected void summonTriggersAfterMultiPut(Map<String, byte[]> pairs) {
-        for (String key : pairs.keySet()) {
-            Set<Long> keyTriggers = this.waitingTriggers.get(key);
-            if (keyTriggers != null) {
-                this.unsignaledTriggers.addAll(keyTriggers);
-                this.databaseChangedConditions.get(key).signalAll();
-            }
-        }
+    protected List<GetWhenTrigger> summonTriggersAfterMultiPut(Map<String, byte[]> pairs) {
+        List<GetWhenTrigger> fired = new ArrayList<GetWhenTrigger>();
+        for (String key : pairs.keySet())
+            fired.addAll(this.summonTriggers(key));
+        return fired;
     }
 
-    protected void getWhenWait(String keyCond, byte[] valueCond) {
-        long threadId = Thread.currentThread().threadId();
-
-        // Add current thread to set of waiting threads
-        Set<Long> keyWaitingThreads = this.waitingTriggers.get(keyCond);
-        if (keyWaitingThreads == null) {
-            keyWaitingThreads = new HashSet<Long>();
-            this.waitingTriggers.put(keyCond, keyWaitingThreads);
-            this.databaseChangedConditions.put(keyCond, this.lock.writeLock().newCondition());
-        }
-        keyWaitingThreads.add(threadId);
+    private List<GetWhenTrigger> summonTriggers(String key) {
+        List<GetWhenTrigger> fired = this.waitingTriggers.fire(key, this.map);
+        for (GetWhenTrigger trigger : fired)
+            if (trigger.getCondition() != null)
+                trigger.getCondition().signal();
+        return fired;
+    }
 
-        // Wait for the database to change
-        Condition waitCondition = this.databaseChangedConditions.get(keyCond);
-        while (!Arrays.equals(this.map.get(keyCond), valueCond)) {
-            waitCondition.awaitUninterruptibly();
+    protected void getWhenWait(GetWhenTrigger trigger) {
+        trigger.setCondition(this.lock.writeLock().newCondition());
+        this.waitingTriggers.add(trigger);
 
-            // Signal end of trigger execution
-            if (this.unsignaledTriggers.contains(threadId)) {
-                this.unsignaledTriggers.remove(threadId);
+        while (!trigger.isFired())
+            trigger.getCondition().awaitUninterruptibly();
+    }
 
-                if (this.unsignaledTriggers.size() == 0)
-                    this.triggersDoneCondition.signalAll();
-            }
-        }
+    protected void registerTrigger(GetWhenTrigger trigger) {
+        this.waitingTriggers.add(trigger);
+    }
 
-        // Waiting threads cleanup
-        keyWaitingThreads.remove(threadId);
-        if (keyWaitingThreads.size() == 0) {
-            this.databaseChangedConditions.remove(keyCond);
-            this.waitingTriggers.remove(keyCond);
-        }
+    protected void unregisterTrigger(GetWhenTrigger trigger) {
+        this.waitingTriggers.remove(trigger);
     }
 
     @Override
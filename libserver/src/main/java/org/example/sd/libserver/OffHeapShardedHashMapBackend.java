@@ -0,0 +1,63 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.List;
+
+// ShardedHashMapBackend whose values are kept off-heap, in slabs shared by all shards, so that the
+// garbage collector doesn't have to mark them. Only keys and value handles stay on the heap.
+public class OffHeapShardedHashMapBackend extends ShardedHashMapBackend {
+    private SlabAllocator allocator;
+
+    public OffHeapShardedHashMapBackend(int nShards) {
+        this(nShards, 0);
+    }
+
+    public OffHeapShardedHashMapBackend(int nShards, long maxBytes) {
+        this(nShards, maxBytes, new SlabAllocator());
+    }
+
+    private OffHeapShardedHashMapBackend(int nShards, long maxBytes, SlabAllocator allocator) {
+        super(nShards, maxBytes, () -> new SlabMap(allocator), map -> ((SlabMap) map).compact());
+        this.allocator = allocator;
+    }
+
+    public OffHeapShardedHashMapBackend(OffHeapShardedHashMapBackend database) {
+        this(database, new SlabAllocator());
+    }
+
+    private OffHeapShardedHashMapBackend(OffHeapShardedHashMapBackend database,
+                                         SlabAllocator                allocator) {
+        super(database, () -> new SlabMap(allocator), map -> ((SlabMap) map).compact());
+        this.allocator = allocator;
+    }
+
+    // SlabMaps already copy values in and out
+    @Override
+    protected byte[] copyValue(byte[] value) {
+        return value;
+    }
+
+    public List<SizeClassStatistics> getSlabStatistics() {
+        return this.allocator.getStatistics();
+    }
+
+    @Override
+    public Object clone() {
+        return new OffHeapShardedHashMapBackend(this);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+
+import org.example.sd.common.Buffer;
+import org.example.sd.common.BufferException;
+import org.example.sd.common.Message;
+import org.example.sd.common.RegisterAuthenticateRequestMessage;
+import org.example.sd.common.RegisterAuthenticateResponseMessage;
+import org.example.sd.common.RegistrationAuthenticationStatus;
+
+public class SelectorConnection {
+    private static final int READ_BUFFER_SIZE = 4 * 1024; // Grown only while reading larger frames
+
+    private final SelectorDatabaseServer server;
+    private final SelectorLoop           loop;
+    private final SocketChannel          channel;
+    private Buffer                       sendBuffer;
+    private SelectionKey                 key;
+
+    private ByteBuffer             readBuffer;
+    private ArrayDeque<ByteBuffer> writeQueue;
+    private ArrayDeque<Message>    writeQueueMessages;
+
+    private String  username;
+    private boolean authenticating;
+    private boolean closed;
+
+    public SelectorConnection(SelectorDatabaseServer server,
+                              SelectorLoop           loop,
+                              SocketChannel          channel) {
+
+        this.server     = server;
+        this.loop       = loop;
+        this.channel    = channel;
+        this.sendBuffer = null;
+        this.key        = null;
+
+        this.readBuffer         = ByteBuffer.allocate(SelectorConnection.READ_BUFFER_SIZE);
+        this.writeQueue         = new ArrayDeque<ByteBuffer>();
+        this.writeQueueMessages = new ArrayDeque<Message>();
+
+        this.username       = null;
+        this.authenticating = false;
+        this.closed         = false;
+    }
+
+    // Must be called from the loop's thread, before any other method. The send buffer is only
+    // created here, as its listener refers to this connection.
+    public void register() {
+        this.sendBuffer = new Buffer(() -> this.loop.execute(() -> this.handleWrite()));
+        try {
+            this.channel.configureBlocking(false);
+            this.key = this.channel.register(this.loop.getSelector(), SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            this.close();
+        }
+    }
+
+    public void handleRead() {
+        try {
+            int read = this.channel.read(this.readBuffer);
+            if (read == -1) {
+                this.close();
+                return;
+            }
+
+            this.processReadBuffer();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            this.close();
+        }
+    }
+
+    private void processReadBuffer() throws IOException {
+        this.readBuffer.flip();
+        while (!this.authenticating) {
+            Message message = Message.deserialize(this.readBuffer);
+            if (message == null)
+                break;
+
+            this.dispatch(message);
+        }
+
+        // Size the buffer for the next frame: grow it for frames larger than it, and shrink it back
+        // once they're done with
+        int frameLength = Message.peekFrameLength(this.readBuffer);
+        int capacity    = Math.max(frameLength, SelectorConnection.READ_BUFFER_SIZE);
+        if (capacity != this.readBuffer.capacity() && this.readBuffer.remaining() <= capacity) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+            newBuffer.put(this.readBuffer);
+            this.readBuffer = newBuffer;
+        } else {
+            this.readBuffer.compact();
+        }
+    }
+
+    private void dispatch(Message message) {
+        if (this.username != null) {
+            this.server.submitMessage(message, this.sendBuffer);
+        } else if (message instanceof RegisterAuthenticateRequestMessage) {
+            // Logging in may block (waiting for a free session), so do it outside the loop and
+            // stop reading from this connection in the meantime
+            RegisterAuthenticateRequestMessage castedMessage =
+                (RegisterAuthenticateRequestMessage) message;
+
+            this.authenticating = true;
+            this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+            this.server.submitAuthentication(castedMessage, status -> {
+                try {
+                    this.sendBuffer.send(new RegisterAuthenticateResponseMessage(status));
+                } catch (BufferException e) {} // Closed connection
+
+                this.loop.execute(() -> this.finishAuthentication(castedMessage, status));
+            });
+        } else {
+            System.err.printf("Invalid message received: %s\n", message.getClass().getSimpleName());
+        }
+    }
+
+    private void finishAuthentication(RegisterAuthenticateRequestMessage message,
+                                      RegistrationAuthenticationStatus   status) {
+
+        if (status == RegistrationAuthenticationStatus.SUCCESS ||
+            status == RegistrationAuthenticationStatus.SUCCESS_NEW_USER) {
+
+            if (this.closed) {
+                this.server.releaseSession(message.getUsername());
+                return;
+            }
+
+            this.username = message.getUsername();
+        }
+
+        if (this.closed)
+            return;
+
+        this.authenticating = false;
+        this.key.interestOps(this.key.interestOps() | SelectionKey.OP_READ);
+        try {
+            this.processReadBuffer(); // Handle requests pipelined after the login
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            this.close();
+        }
+    }
+
+    public void handleWrite() {
+        if (this.closed)
+            return;
+
+        try {
+            List<Message> messages = this.sendBuffer.tryReceiveAll();
+            for (Message message : messages) {
+                this.writeQueue.add(this.serializeMessage(message));
+                this.writeQueueMessages.add(message);
+            }
+            if (!messages.isEmpty())
+                this.server.getWriteStatistics().recordBatch(messages.size());
+
+            // Gathering write of every pending message
+            while (!this.writeQueue.isEmpty()) {
+                long written = this.channel.write(this.writeQueue.toArray(new ByteBuffer[0]));
+                this.server.getWriteStatistics().recordWrite(written);
+                while (!this.writeQueue.isEmpty() && !this.writeQueue.peek().hasRemaining()) {
+                    this.writeQueue.poll();
+                    this.server.messageWritten(this.sendBuffer, this.writeQueueMessages.poll());
+                }
+
+                if (written == 0)
+                    break; // Socket's send buffer is full
+            }
+
+            if (this.writeQueue.isEmpty())
+                this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+            else
+                this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+        } catch (BufferException e) {
+            return;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            this.close();
+        }
+    }
+
+    private ByteBuffer serializeMessage(Message message) throws IOException {
+        return ByteBuffer.wrap(message.toFrame());
+    }
+
+    public void close() {
+        if (this.closed)
+            return;
+        this.closed = true;
+
+        if (this.key != null)
+            this.key.cancel();
+
+        try {
+            this.channel.close();
+        } catch (IOException e) {}
+
+        this.sendBuffer.shutdown();
+        this.server.connectionClosed(this.sendBuffer);
+        if (this.username != null)
+            this.server.releaseSession(this.username);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SelectorConnection(username=%s, pendingWrites=%d)",
+                             this.username,
+                             this.writeQueue.size());
+    }
+}
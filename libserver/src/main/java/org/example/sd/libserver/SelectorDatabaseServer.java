@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+import org.example.sd.common.KeyValueDB;
+import org.example.sd.common.RegisterAuthenticateRequestMessage;
+import org.example.sd.common.RegistrationAuthenticationStatus;
+
+public class SelectorDatabaseServer extends DatabaseServer {
+    private final int nLoops;
+
+    public SelectorDatabaseServer(int port, int maxConnections, KeyValueDB backend, int nLoops) {
+        this(port, new SessionManager(maxConnections), backend, nLoops);
+    }
+
+    public SelectorDatabaseServer(int            port,
+                                  SessionManager sessions,
+                                  KeyValueDB     backend,
+                                  int            nLoops) {
+
+        super(port, sessions, backend);
+        this.nLoops = nLoops;
+    }
+
+    @Override
+    public void run() throws IOException {
+        SelectorLoop[] loops = new SelectorLoop[this.nLoops];
+        for (int i = 0; i < this.nLoops; ++i) {
+            loops[i] = new SelectorLoop();
+
+            Thread loopThread = new Thread(loops[i]);
+            loopThread.setDaemon(true);
+            loopThread.start();
+        }
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(this.port));
+
+        int nextLoop = 0;
+        while (true) {
+            SocketChannel      channel    = serverChannel.accept();
+            SelectorLoop       loop       = loops[nextLoop];
+            SelectorConnection connection = new SelectorConnection(this, loop, channel);
+
+            loop.execute(() -> connection.register());
+            nextLoop = (nextLoop + 1) % this.nLoops;
+        }
+    }
+
+    public void submitAuthentication(RegisterAuthenticateRequestMessage         message,
+                                     Consumer<RegistrationAuthenticationStatus> callback) {
+
+        this.threadPool.addTask(() -> callback.accept(this.authenticate(message)));
+    }
+
+    public void releaseSession(String username) {
+        this.sessions.releaseSession(username);
+    }
+
+    public int getNLoops() {
+        return this.nLoops;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SelectorDatabaseServer(backend=%s, port=%d, nLoops=%d)",
+                             ((Object) this.backend).getClass().getSimpleName(),
+                             this.port,
+                             this.nLoops);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class SelectorLoop implements Runnable {
+    private final Selector       selector;
+    private final Lock           lock;
+    private ArrayDeque<Runnable> tasks;
+
+    public SelectorLoop() throws IOException {
+        this.selector = Selector.open();
+        this.lock     = new ReentrantLock();
+        this.tasks    = new ArrayDeque<Runnable>();
+    }
+
+    // Runs a task in the loop's thread (the only thread allowed to touch its channels)
+    public void execute(Runnable task) {
+        this.lock.lock();
+        try {
+            this.tasks.add(task);
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.selector.wakeup();
+    }
+
+    public Selector getSelector() {
+        return this.selector;
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                this.selector.select();
+            } catch (IOException e) {
+                System.err.printf("Selector failure: %s\n", e.getMessage());
+                return;
+            }
+
+            this.runTasks();
+
+            Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+
+                SelectorConnection connection = (SelectorConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable())
+                        connection.handleRead();
+                    if (key.isValid() && key.isWritable())
+                        connection.handleWrite();
+                } catch (RuntimeException e) {
+                    // Malformed messages only bring down their own connection
+                    System.err.printf("Selector loop exception: %s\n", e.getMessage());
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void runTasks() {
+        ArrayDeque<Runnable> currentTasks;
+
+        this.lock.lock();
+        try {
+            currentTasks = this.tasks;
+            this.tasks   = new ArrayDeque<Runnable>();
+        } finally {
+            this.lock.unlock();
+        }
+
+        for (Runnable task : currentTasks) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                // Don't let a bad task crash the whole loop
+                System.err.printf("Selector loop exception: %s\n", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SelectorLoop(keys=%d)", this.selector.keys().size());
+    }
+}
@@ -17,34 +17,47 @@
 package org.example.sd.libserver;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
-import java.util.Set;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class SessionManager {
-    private final int           maxSessions;
-    private Map<String, String> passwords;
-    private Queue<String>       waitingQueue;
-    private Set<String>         activeClients;
-    private final Lock          lock;
-    private final Condition     sessionAvailable;
+    private final int            maxSessions;
+    private final int            maxSessionsPerUser;
+    private Map<String, String>  passwords;
+    private Queue<Object>        waitingQueue;
+    private Map<String, Integer> waitingClients;
+    private Map<String, Integer> activeClients;
+    private int                  activeSessions;
+    private final Lock           lock;
+    private final Condition      sessionAvailable;
 
     public SessionManager(int maxSessions) {
-        this.maxSessions      = maxSessions;
-        this.passwords        = new HashMap<String, String>();
-        this.waitingQueue     = new LinkedList<String>();
-        this.activeClients    = new HashSet<String>();
-        this.lock             = new ReentrantLock();
-        this.sessionAvailable = lock.newCondition();
+        this(maxSessions, 1);
+    }
+
+    // A user may hold up to maxSessionsPerUser sessions at once (e.g.: a connection pool), each of
+    // them counting towards maxSessions. Queued logins also count towards the per-user limit.
+    public SessionManager(int maxSessions, int maxSessionsPerUser) {
+        if (maxSessionsPerUser < 1)
+            throw new IllegalArgumentException("maxSessionsPerUser must be positive");
+
+        this.maxSessions        = maxSessions;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.passwords          = new HashMap<String, String>();
+        this.waitingQueue       = new LinkedList<Object>();
+        this.waitingClients     = new HashMap<String, Integer>();
+        this.activeClients      = new HashMap<String, Integer>();
+        this.activeSessions     = 0;
+        this.lock               = new ReentrantLock();
+        this.sessionAvailable   = lock.newCondition();
     }
 
     public SessionManager(SessionManager manager) {
-        this(manager.getMaxSessions());
+        this(manager.getMaxSessions(), manager.getMaxSessionsPerUser());
         this.passwords = manager.getPasswords();
     }
 
@@ -53,8 +66,11 @@ public class SessionManager {
 
         this.lock.lock();
         try {
-            if (this.activeClients.contains(username) || this.waitingQueue.contains(username))
-                throw new SessionException("User '" + username + "' is already authenticated.");
+            int userSessions = this.activeClients.getOrDefault(username, 0) +
+                this.waitingClients.getOrDefault(username, 0);
+            if (userSessions >= this.maxSessionsPerUser)
+                throw new SessionException("User '" + username + "' is already authenticated " +
+                                           userSessions + " time(s).");
 
             // Check password
             String truePassword = this.passwords.get(username);
@@ -65,17 +81,21 @@ public class SessionManager {
                 throw new SessionException("Wrong password");
             }
 
-            // Wait for turn
-            this.waitingQueue.add(username);
-            while (this.activeClients.size() >= this.maxSessions ||
-                   !username.equals(this.waitingQueue.peek())) {
-
+            // Wait for turn (each login gets its own ticket, as a user may be queued many times)
+            Object ticket = new Object();
+            this.waitingQueue.add(ticket);
+            this.waitingClients.merge(username, 1, Integer::sum);
+            while (this.activeSessions >= this.maxSessions || this.waitingQueue.peek() != ticket)
                 this.sessionAvailable.awaitUninterruptibly();
-            }
 
             // Login
             this.waitingQueue.poll();
-            this.activeClients.add(username);
+            this.waitingClients.computeIfPresent(username, (k, n) -> n == 1 ? null : n - 1);
+            this.activeClients.merge(username, 1, Integer::sum);
+            this.activeSessions++;
+
+            if (!this.waitingQueue.isEmpty())
+                this.sessionAvailable.signalAll(); // Next in line may also fit
             return newUser;
         } finally {
             this.lock.unlock();
@@ -85,8 +105,9 @@ public class SessionManager {
     public void releaseSession(String username) {
         this.lock.lock();
         try {
-            if (this.activeClients.contains(username)) {
-                this.activeClients.remove(username);
+            if (this.activeClients.containsKey(username)) {
+                this.activeClients.computeIfPresent(username, (k, n) -> n == 1 ? null : n - 1);
+                this.activeSessions--;
 
                 if (!this.waitingQueue.isEmpty())
                     this.sessionAvailable.signalAll();
@@ -100,6 +121,28 @@ public class SessionManager {
         return this.maxSessions;
     }
 
+    public int getMaxSessionsPerUser() {
+        return this.maxSessionsPerUser;
+    }
+
+    public int getActiveSessions(String username) {
+        this.lock.lock();
+        try {
+            return this.activeClients.getOrDefault(username, 0);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getActiveSessions() {
+        this.lock.lock();
+        try {
+            return this.activeSessions;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
     public Map<String, String> getPasswords() {
         this.lock.lock();
         try {
@@ -121,13 +164,15 @@ public class SessionManager {
 
         SessionManager sessions = (SessionManager) o;
         return this.maxSessions == sessions.getMaxSessions() &&
+            this.maxSessionsPerUser == sessions.getMaxSessionsPerUser() &&
             this.passwords.equals(sessions.getPasswords());
     }
 
     @Override
     public String toString() {
-        return String.format("SessionManager(maxSessions=%d, passwords=%s)",
+        return String.format("SessionManager(maxSessions=%d, maxSessionsPerUser=%d, passwords=%s)",
                              this.maxSessions,
+                             this.maxSessionsPerUser,
                              this.passwords.toString());
     }
 }
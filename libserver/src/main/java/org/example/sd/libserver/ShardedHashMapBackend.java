@@ -16,87 +16,451 @@
 
 package org.example.sd.libserver;
 
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.example.sd.common.KeyValueDB;
 
-public class ShardedHashMapBackend implements KeyValueDB {
-    private final int             nShards;
-    private Map<String, byte[]>[] shards;
-    private ReadWriteLock[]       locks;
+// getWhen triggers are indexed in the shards of their condition keys. As in
+// ConcurrentHashMapBackend, writers also lock the shards read by the triggers waiting on the keys
+// they write, and hand the triggers they satisfy their values while holding those locks, so that
+// writers never wait for waiters. Keys evicted by the memory budget aren't known before locking, so
+// their triggers are checked again right after the write if they need other shards.
+//
+// Keys put with a TTL have a deadline. Once it passes, reads treat them as missing, and a
+// background task (scheduled by the first TTL) removes them, found through each shard's timing
+// wheel. It locks a shard for at most EXPIRE_BATCH keys at a time, so that mass expirations don't
+// stall writers. The tasks of all backends share one daemon thread, and only refer weakly to their
+// backends: a task stops once its backend is closed or collected.
+//
+// With a memory budget (maxBytes, counting keys and values), each shard gets an equal part of it,
+// and writes that exceed it evict keys chosen by the shard's W-TinyLFU policy. Evicted keys are
+// reported like deletions. As the budget is charged under the shard's write lock, it's never
+// exceeded, even briefly.
+public class ShardedHashMapBackend
+    implements KeyValueDB, AsyncGetWhenBackend, WatchableBackend {
+
+    private static final long TICK_MILLIS  = 10;
+    private static final int  EXPIRE_BATCH = 256;
+
+    // Runs the reclaimers of all backends, on a daemon thread started by the first one
+    private static final ScheduledThreadPoolExecutor RECLAIMER =
+        ShardedHashMapBackend.newReclaimerExecutor();
+
+    private record Expiration(String key, long deadline) {}
+
+    // Reclaims the expired keys of a backend every tick, until it's collected
+    private static class Reclaimer implements Runnable {
+        private final WeakReference<ShardedHashMapBackend> backend;
+        private volatile ScheduledFuture<?>                 future;
+
+        private Reclaimer(ShardedHashMapBackend backend) {
+            this.backend = new WeakReference<ShardedHashMapBackend>(backend);
+            this.future  = null;
+        }
+
+        @Override
+        public void run() {
+            ShardedHashMapBackend backend = this.backend.get();
+            if (backend != null)
+                backend.reclaimExpired();
+            else if (this.future != null)
+                this.future.cancel(false);
+        }
+    }
+
+    // Triggers fired by a write, to be completed once it releases its locks. Triggers that needed
+    // shards it didn't lock (waiting on evicted keys) are deferred, and checked again then.
+    private static class Firing {
+        private List<GetWhenTrigger> fired    = new ArrayList<GetWhenTrigger>();
+        private List<GetWhenTrigger> deferred = new ArrayList<GetWhenTrigger>();
+    }
+
+    // Values of all shards, as read by triggers. Only keys of locked shards may be looked up.
+    private class LockedShards extends AbstractMap<String, byte[]> {
+        @Override
+        public byte[] get(Object key) {
+            String stringKey = (String) key;
+            return ShardedHashMapBackend.this.lookup(ShardedHashMapBackend.this.shardOf(stringKey),
+                                                     stringKey);
+        }
+
+        @Override
+        public Set<Map.Entry<String, byte[]>> entrySet() {
+            throw new UnsupportedOperationException("Shards can't be iterated by triggers");
+        }
+    }
+
+    private final int                          nShards;
+    private List<Map<String, byte[]>>          shards;
+    private UnaryOperator<Map<String, byte[]>> rebuildShardMap;
+    private ReadWriteLock[]                    locks;
+    private GetWhenTriggerIndex[]              triggers; // Guarded by each shard's write lock
+    private DeletionCounter[]                  deletions;
+    private List<Map<String, Long>>            deadlines; // System.nanoTime() of keys with a TTL
+    private List<TimingWheel<Expiration>>      expirations;
+    private Lock                               reclaimerLock;
+    private volatile ScheduledFuture<?>        reclaimer; // null until the first TTL
+    private volatile boolean                   closed;
+    private final long                         maxBytes;
+    private WTinyLfuPolicy[]                   policies; // null without a memory budget
+    private ReentrantLock[]                    policyLocks;
+    private EvictionStatistics                 evictionStatistics;
+    private volatile KeyChangeListener         changeListener;
 
     public ShardedHashMapBackend(int nShards) {
-        this.nShards = nShards;
-        this.shards  = (Map<String, byte[]>[]) new Map[nShards];
-        this.locks   = new ReadWriteLock[nShards];
+        this(nShards, 0);
+    }
+
+    // A maxBytes of 0 means no memory budget
+    public ShardedHashMapBackend(int nShards, long maxBytes) {
+        this(nShards,
+             maxBytes,
+             () -> new HashMap<String, byte[]>(),
+             map -> new HashMap<String, byte[]>(map));
+    }
+
+    // Subclasses may keep values elsewhere, in shard maps from newShardMap. rebuildShardMap must
+    // return a map with the same contents as the one it's given, sized for them, as the shards'
+    // tables never shrink. Subclasses whose maps copy values themselves must override copyValue.
+    protected ShardedHashMapBackend(int                                nShards,
+                                    long                               maxBytes,
+                                    Supplier<Map<String, byte[]>>      newShardMap,
+                                    UnaryOperator<Map<String, byte[]>> rebuildShardMap) {
+        if (maxBytes < 0 || (maxBytes > 0 && maxBytes < nShards))
+            throw new IllegalArgumentException("Invalid memory budget: " + maxBytes + " bytes");
+
+        this.nShards                   = nShards;
+        this.shards                    = new ArrayList<Map<String, byte[]>>(nShards);
+        this.rebuildShardMap           = rebuildShardMap;
+        this.locks                     = new ReadWriteLock[nShards];
+        this.triggers                  = new GetWhenTriggerIndex[nShards];
+        this.deletions                 = new DeletionCounter[nShards];
+        this.deadlines                 = new ArrayList<Map<String, Long>>(nShards);
+        this.expirations               = new ArrayList<TimingWheel<Expiration>>(nShards);
+        this.reclaimerLock             = new ReentrantLock();
+        this.reclaimer                 = null;
+        this.closed                    = false;
+        this.maxBytes                  = maxBytes;
+        this.policies                  = maxBytes > 0 ? new WTinyLfuPolicy[nShards] : null;
+        this.policyLocks               = maxBytes > 0 ? new ReentrantLock[nShards] : null;
+        this.evictionStatistics        = new EvictionStatistics();
+        this.changeListener            = null;
 
         for (int i = 0; i < nShards; ++i) {
-            this.shards[i] = new HashMap<String, byte[]>();
-            this.locks[i]  = new ReentrantReadWriteLock();
+            this.locks[i]     = new ReentrantReadWriteLock();
+            this.triggers[i]  = new GetWhenTriggerIndex();
+            this.deletions[i] = new DeletionCounter();
+            this.shards.add(newShardMap.get());
+            this.deadlines.add(new HashMap<String, Long>());
+            this.expirations.add(new TimingWheel<Expiration>(
+                TimeUnit.MILLISECONDS.toNanos(ShardedHashMapBackend.TICK_MILLIS)));
+
+            if (this.policies != null) {
+                this.policies[i]    = new WTinyLfuPolicy(maxBytes / nShards);
+                this.policyLocks[i] = new ReentrantLock();
+            }
         }
     }
 
     public ShardedHashMapBackend(ShardedHashMapBackend database) {
-        this(database.getNShards());
-        this.shards = database.getShards();
+        this(database,
+             () -> new HashMap<String, byte[]>(),
+             map -> new HashMap<String, byte[]>(map));
+    }
+
+    // Copies the contents of another backend into shard maps from newShardMap
+    protected ShardedHashMapBackend(ShardedHashMapBackend              database,
+                                    Supplier<Map<String, byte[]>>      newShardMap,
+                                    UnaryOperator<Map<String, byte[]>> rebuildShardMap) {
+        this(database.getNShards(), database.getMaxBytes(), newShardMap, rebuildShardMap);
+
+        List<Map<String, byte[]>> shards = database.getShards();
+        for (int i = 0; i < this.nShards; ++i)
+            this.shards.get(i).putAll(shards.get(i));
+
+        if (this.policies != null)
+            for (int i = 0; i < this.nShards; ++i)
+                for (String key : new ArrayList<String>(this.shards.get(i).keySet()))
+                    this.charge(i, key, this.shards.get(i).get(key));
+
+        List<Map<String, Long>> deadlines = database.getDeadlines();
+        for (int i = 0; i < this.nShards; ++i)
+            for (Map.Entry<String, Long> deadline : deadlines.get(i).entrySet())
+                this.addDeadline(i, deadline.getKey(), deadline.getValue());
     }
 
     public void put(String key, byte[] value) {
-        int shard = Math.abs(key.hashCode()) % this.nShards;
+        this.store(key, value, 0);
+    }
 
-        this.locks[shard].writeLock().lock();
+    public void put(String key, byte[] value, long ttlMillis) {
+        this.store(key, value, ShardedHashMapBackend.ttlNanos(ttlMillis));
+    }
+
+    // A ttlNanos of 0 makes the key persistent
+    private void store(String key, byte[] value, long ttlNanos) {
+        int    shard  = this.shardOf(key);
+        int[]  locked = this.lockShards(new int[] { shard }, List.of(key));
+        Firing firing;
         try {
-            this.shards[shard].put(key, value.clone());
+            this.shards.get(shard).put(key, this.copyValue(value));
+            if (ttlNanos > 0)
+                this.setDeadline(shard, key, System.nanoTime() + ttlNanos);
+            else
+                this.clearDeadline(shard, key);
+            firing = this.publish(this.charge(shard, key, value), locked);
         } finally {
-            this.locks[shard].writeLock().unlock();
+            this.unlockShards(locked);
         }
+        this.completeTriggers(firing);
     }
 
-    public byte[] get(String key) {
-        int shard = Math.abs(key.hashCode()) % this.nShards;
+    public boolean putIf(String key, byte[] expected, byte[] value) {
+        int    shard  = this.shardOf(key);
+        int[]  locked = this.lockShards(new int[] { shard }, List.of(key));
+        Firing firing;
+        try {
+            if (!Arrays.equals(this.lookup(shard, key), expected))
+                return false;
+
+            this.shards.get(shard).put(key, this.copyValue(value));
+            this.clearDeadline(shard, key);
+            firing = this.publish(this.charge(shard, key, value), locked);
+        } finally {
+            this.unlockShards(locked);
+        }
+        this.completeTriggers(firing);
+        return true;
+    }
+
+    public long add(String key, long delta) {
+        return ValueOperations.toLong(this.update(key, v -> ValueOperations.add(v, delta)));
+    }
+
+    public int append(String key, byte[] suffix) {
+        return this.update(key, v -> ValueOperations.append(v, suffix)).length;
+    }
+
+    public byte[] getRange(String key, int offset, int length) {
+        int shard = this.shardOf(key);
 
         this.locks[shard].readLock().lock();
         try {
-            byte[] value = this.shards[shard].get(key);
+            byte[] value = this.lookup(shard, key);
             if (value != null)
-                value = value.clone();
-            return value;
+                this.recordAccess(shard, key);
+            return ValueOperations.getRange(value, offset, length);
+        } finally {
+            this.locks[shard].readLock().unlock();
+        }
+    }
+
+    public int putRange(String key, int offset, byte[] bytes) {
+        return this.update(key, v -> ValueOperations.putRange(v, offset, bytes)).length;
+    }
+
+    // Replaces a value (null if missing) by a function of it, returning the new value. The function
+    // may modify the value in place, as readers only copy it under the shard's read lock. A live
+    // key keeps its TTL.
+    private byte[] update(String key, UnaryOperator<byte[]> update) {
+        int    shard  = this.shardOf(key);
+        int[]  locked = this.lockShards(new int[] { shard }, List.of(key));
+        byte[] value;
+        Firing firing;
+        try {
+            byte[] current = this.lookup(shard, key);
+            if (current == null)
+                this.clearDeadline(shard, key);
+
+            value = update.apply(current);
+            this.shards.get(shard).put(key, value);
+            firing = this.publish(this.charge(shard, key, value), locked);
+        } finally {
+            this.unlockShards(locked);
+        }
+        this.completeTriggers(firing);
+        return value;
+    }
+
+    public byte[] get(String key) {
+        int shard = this.shardOf(key);
+
+        this.locks[shard].readLock().lock();
+        try {
+            return this.getFromShard(shard, key);
         } finally {
             this.locks[shard].readLock().unlock();
         }
     }
 
     public void multiPut(Map<String, byte[]> pairs) {
-        Map<Integer, List<String>> shardKeys = this.associateKeysToShards(pairs.keySet());
+        this.multiPutIf(Map.of(), pairs);
+    }
 
-        int acquiredLocksCount = 0;
+    public void multiPut(Map<String, byte[]> pairs, long ttlMillis) {
+        this.write(Map.of(), pairs, ShardedHashMapBackend.ttlNanos(ttlMillis));
+    }
+
+    public boolean multiPutIf(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        return this.write(preconditions, pairs, 0) >= 0;
+    }
+
+    public boolean delete(String key) {
+        return this.multiDelete(Set.of(key)) > 0;
+    }
+
+    public int multiDelete(Set<String> keys) {
+        Map<String, byte[]> deletions = new HashMap<String, byte[]>();
+        for (String key : keys)
+            deletions.put(key, null);
+        return this.write(Map.of(), deletions, 0);
+    }
+
+    // Writes pairs (deleting the keys whose value is null) if every precondition holds, and returns
+    // how many of their keys existed, or -1 if a precondition failed. The shards of the
+    // preconditions are locked too, in the same (ascending) order.
+    private int write(Map<String, byte[]> preconditions, Map<String, byte[]> pairs, long ttlNanos) {
+        Set<String> keys = new HashSet<String>(pairs.keySet());
+        keys.addAll(preconditions.keySet());
+        Map<Integer, List<String>> shardKeys = this.associateKeysToShards(keys);
+
+        int[]  shards  = shardKeys.keySet().stream().mapToInt(Integer::intValue).toArray();
+        int[]  locked  = this.lockShards(shards, pairs.keySet());
+        int    existed = 0;
+        Firing firing;
         try {
+            for (Map.Entry<String, byte[]> precondition : preconditions.entrySet()) {
+                int    shard   = this.shardOf(precondition.getKey());
+                byte[] current = this.lookup(shard, precondition.getKey());
+                if (!Arrays.equals(current, precondition.getValue()))
+                    return -1;
+            }
+
+            // Deleting a missing key changes nothing, so it isn't reported. An expired key that
+            // wasn't reclaimed yet doesn't count as existing, but its deletion is still reported.
+            Map<String, byte[]> changes  = new HashMap<String, byte[]>();
+            long                deadline = System.nanoTime() + ttlNanos;
             for (Map.Entry<Integer, List<String>> entry : shardKeys.entrySet()) {
-                int shard = entry.getKey();
-                this.locks[shard].writeLock().lock();
-                acquiredLocksCount++;
+                int shard   = entry.getKey();
+                int deleted = 0;
+                for (String key : entry.getValue()) {
+                    if (!pairs.containsKey(key))
+                        continue;
+
+                    if (this.lookup(shard, key) != null)
+                        existed++;
+
+                    Map<String, byte[]> map     = this.shards.get(shard);
+                    byte[]              value   = pairs.get(key);
+                    boolean             present = map.containsKey(key);
+                    if (value == null)
+                        map.remove(key);
+                    else
+                        map.put(key, this.copyValue(value));
+                    if (value != null && ttlNanos > 0)
+                        this.setDeadline(shard, key, deadline);
+                    else
+                        this.clearDeadline(shard, key);
+
+                    if (value == null && present)
+                        deleted++;
+                    if (value != null || present)
+                        changes.put(key, value);
+
+                    if (this.policies != null && value == null)
+                        this.policies[shard].recordRemoval(key);
+                    else if (this.policies != null)
+                        this.evict(shard,
+                                   this.policies[shard].recordWrite(
+                                       key, ShardedHashMapBackend.entrySize(key, value)),
+                                   changes);
+                }
 
-                List<String> currentShardKeys = entry.getValue();
-                for (String key : currentShardKeys)
-                    this.shards[shard].put(key, pairs.get(key).clone());
+                this.countDeletions(shard, deleted);
             }
+
+            firing = this.publish(changes, locked);
         } finally {
-            Iterator<Integer> i = shardKeys.keySet().iterator();
-            while (i.hasNext() && acquiredLocksCount > 0) {
-                this.locks[i.next()].writeLock().unlock();
-                acquiredLocksCount--;
+            this.unlockShards(locked);
+        }
+        this.completeTriggers(firing);
+        return existed;
+    }
+
+    // Write-locks shards (sorted) and the shards read by the triggers waiting on keys (whose own
+    // shards must be among them), all in ascending order, so that writing keys can fire those
+    // triggers. Triggers are only registered with their condition keys' shards locked, so they
+    // can't change once these are. Returns the locked shards.
+    private int[] lockShards(int[] shards, Collection<String> keys) {
+        while (true) {
+            for (int shard : shards)
+                this.locks[shard].writeLock().lock();
+
+            int[] needed = this.triggerShards(shards, keys);
+            if (needed == shards)
+                return shards;
+
+            // A trigger needs a shard that should have been locked earlier: retry with it
+            this.unlockShards(shards);
+            shards = needed;
+        }
+    }
+
+    private void unlockShards(int[] shards) {
+        for (int shard : shards)
+            this.locks[shard].writeLock().unlock();
+    }
+
+    // Returns shards, with the shards read by the triggers waiting on keys added, if any is missing
+    private int[] triggerShards(int[] shards, Collection<String> keys) {
+        Set<Integer> missing = null;
+        for (String key : keys) {
+            GetWhenTriggerIndex index = this.triggers[this.shardOf(key)];
+            if (index.size() == 0)
+                continue;
+
+            for (GetWhenTrigger trigger : index.get(key)) {
+                for (int shard : this.shardsOf(trigger)) {
+                    if (Arrays.binarySearch(shards, shard) >= 0)
+                        continue;
+
+                    if (missing == null)
+                        missing = new HashSet<Integer>();
+                    missing.add(shard);
+                }
             }
         }
+
+        if (missing == null)
+            return shards;
+        return IntStream.concat(Arrays.stream(shards), missing.stream().mapToInt(i -> i))
+            .sorted()
+            .toArray();
     }
 
     public Map<String, byte[]> multiGet(Set<String> keys) {
@@ -112,7 +476,7 @@ public class ShardedHashMapBackend implements KeyValueDB {
 
                 List<String> currentShardKeys = entry.getValue();
                 for (String key : currentShardKeys) {
-                    byte[] value = this.shards[shard].get(key);
+                    byte[] value = this.getFromShard(shard, key);
                     if (value != null)
                         ret.put(key, value);
                 }
@@ -129,13 +493,360 @@ public class ShardedHashMapBackend implements KeyValueDB {
     }
 
     public byte[] getWhen(String key, String keyCond, byte[] valueCond) {
-        throw new UnsupportedOperationException("getWhen not supported: choose another backend");
+        return this.getWhenAsync(key, keyCond, valueCond).join();
+    }
+
+    public Map<String, byte[]>
+        multiGetWhen(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+        return this.multiGetWhenAsync(keys, conditions, allOf).join();
+    }
+
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond) {
+        return this.registerTrigger(new GetWhenTrigger(key, keyCond, valueCond),
+                                    trigger -> trigger.getValue());
+    }
+
+    public CompletableFuture<Map<String, byte[]>>
+        multiGetWhenAsync(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+
+        if (conditions.isEmpty())
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("multiGetWhen requires at least one condition"));
+
+        return this.registerTrigger(new GetWhenTrigger(keys, conditions, allOf),
+                                    trigger -> trigger.getValues());
+    }
+
+    // Fires the trigger right away if its conditions hold, or registers it in the shards of its
+    // condition keys, where the write that satisfies them will find it
+    private <T> CompletableFuture<T> registerTrigger(GetWhenTrigger              trigger,
+                                                     Function<GetWhenTrigger, T> result) {
+        int[] shards = this.shardsOf(trigger);
+        for (int shard : shards)
+            this.locks[shard].writeLock().lock();
+
+        try {
+            if (trigger.tryFire(new LockedShards()))
+                return CompletableFuture.completedFuture(result.apply(trigger));
+
+            trigger.setFuture(new CompletableFuture<Map<String, byte[]>>());
+            for (int shard : this.conditionShardsOf(trigger))
+                this.triggers[shard].add(trigger);
+        } finally {
+            this.unlockShards(shards);
+        }
+
+        // Cancelled or timed out triggers mustn't stay registered
+        CompletableFuture<T> ret = trigger.getFuture().thenApply(values -> result.apply(trigger));
+        ret.whenComplete((value, e) -> {
+            if (e != null)
+                this.cancelTrigger(trigger);
+        });
+        return ret;
+    }
+
+    private void cancelTrigger(GetWhenTrigger trigger) {
+        int[] shards = this.conditionShardsOf(trigger);
+        for (int shard : shards)
+            this.locks[shard].writeLock().lock();
+
+        try {
+            this.unregisterTrigger(trigger);
+        } finally {
+            this.unlockShards(shards);
+        }
+    }
+
+    // Must be called with the trigger's condition shards locked
+    private void unregisterTrigger(GetWhenTrigger trigger) {
+        for (int shard : this.conditionShardsOf(trigger))
+            this.triggers[shard].remove(trigger);
+    }
+
+    // Fires the triggers satisfied by the changes, which must have been written with lockShards
+    // (locked is what it returned), and reports the changes. The fired triggers must be completed
+    // with completeTriggers, once the locks are released.
+    private Firing publish(Map<String, byte[]> changes, int[] locked) {
+        Firing       firing = new Firing();
+        LockedShards view   = null;
+        for (String key : changes.keySet()) {
+            GetWhenTriggerIndex index = this.triggers[this.shardOf(key)];
+            if (index.size() == 0)
+                continue;
+
+            if (view == null)
+                view = new LockedShards();
+            for (GetWhenTrigger trigger : index.candidates(key, view)) {
+                if (!this.isLocked(trigger, locked)) {
+                    firing.deferred.add(trigger);
+                } else if (trigger.tryFire(view)) {
+                    this.unregisterTrigger(trigger);
+                    firing.fired.add(trigger);
+                }
+            }
+        }
+
+        KeyChangeListener listener = this.changeListener;
+        if (listener != null && !changes.isEmpty())
+            listener.keysChanged(changes);
+        return firing;
+    }
+
+    private void completeTriggers(Firing firing) {
+        for (GetWhenTrigger trigger : firing.deferred)
+            this.retryTrigger(trigger);
+        for (GetWhenTrigger trigger : firing.fired)
+            trigger.getFuture().complete(trigger.getValues());
+    }
+
+    // Checks a trigger whose shards weren't all locked by the write that may have satisfied it
+    private void retryTrigger(GetWhenTrigger trigger) {
+        int[]   shards = this.shardsOf(trigger);
+        boolean fired  = false;
+        for (int shard : shards)
+            this.locks[shard].writeLock().lock();
+
+        try {
+            fired = !trigger.isFired() && trigger.tryFire(new LockedShards());
+            if (fired)
+                this.unregisterTrigger(trigger);
+        } finally {
+            this.unlockShards(shards);
+        }
+
+        if (fired)
+            trigger.getFuture().complete(trigger.getValues());
+    }
+
+    private boolean isLocked(GetWhenTrigger trigger, int[] locked) {
+        for (int shard : this.shardsOf(trigger))
+            if (Arrays.binarySearch(locked, shard) < 0)
+                return false;
+        return true;
+    }
+
+    // Shards of the keys a trigger reads, sorted
+    private int[] shardsOf(GetWhenTrigger trigger) {
+        return this.shardsOf(trigger.getKeys(), trigger.getConditionKeys());
+    }
+
+    private int[] conditionShardsOf(GetWhenTrigger trigger) {
+        return this.shardsOf(trigger.getConditionKeys(), List.of());
+    }
+
+    // Distinct shards of the keys, sorted. Writes compute these for every trigger they look at, so
+    // this doesn't build streams.
+    private int[] shardsOf(Collection<String> keys, Collection<String> moreKeys) {
+        int[] ret   = new int[keys.size() + moreKeys.size()];
+        int   count = 0;
+        for (String key : keys)
+            ret[count++] = this.shardOf(key);
+        for (String key : moreKeys)
+            ret[count++] = this.shardOf(key);
+        Arrays.sort(ret);
+
+        int distinct = 0;
+        for (int i = 0; i < count; ++i)
+            if (distinct == 0 || ret[i] != ret[distinct - 1])
+                ret[distinct++] = ret[i];
+        return distinct == count ? ret : Arrays.copyOf(ret, distinct);
+    }
+
+    private byte[] getFromShard(int shard, String key) {
+        byte[] value = this.lookup(shard, key);
+        if (value != null) {
+            value = this.copyValue(value);
+            this.recordAccess(shard, key);
+        }
+        return value;
+    }
+
+    // Returns a key's value, or null if it's missing or expired (but not reclaimed yet)
+    private byte[] lookup(int shard, String key) {
+        byte[] value = this.shards.get(shard).get(key);
+        if (value != null && !this.deadlines.get(shard).isEmpty()) {
+            Long deadline = this.deadlines.get(shard).get(key);
+            if (deadline != null && deadline - System.nanoTime() <= 0)
+                return null;
+        }
+        return value;
+    }
+
+    private void setDeadline(int shard, String key, long deadline) {
+        this.addDeadline(shard, key, deadline);
+        if (this.reclaimer == null && !this.closed)
+            this.startReclaimer();
+    }
+
+    // Doesn't start the reclaimer, so that copy constructors don't hand this backend to it before
+    // it's fully constructed. Copies reclaim the keys they copied after their first TTL.
+    private void addDeadline(int shard, String key, long deadline) {
+        this.deadlines.get(shard).put(key, deadline);
+        this.expirations.get(shard).add(new Expiration(key, deadline), deadline);
+    }
+
+    private void startReclaimer() {
+        this.reclaimerLock.lock();
+        try {
+            if (this.reclaimer != null || this.closed)
+                return;
+
+            Reclaimer reclaimer = new Reclaimer(this);
+            reclaimer.future    = ShardedHashMapBackend.RECLAIMER.scheduleWithFixedDelay(
+                reclaimer,
+                ShardedHashMapBackend.TICK_MILLIS,
+                ShardedHashMapBackend.TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+            this.reclaimer = reclaimer.future;
+        } finally {
+            this.reclaimerLock.unlock();
+        }
+    }
+
+    // Stops reclaiming expired keys in the background. They're still treated as missing by reads,
+    // and removed when overwritten.
+    public void close() {
+        this.reclaimerLock.lock();
+        try {
+            this.closed = true;
+            if (this.reclaimer != null)
+                this.reclaimer.cancel(false);
+        } finally {
+            this.reclaimerLock.unlock();
+        }
+    }
+
+    // Timers of cleared deadlines are left in the wheels, and ignored when they fire
+    private void clearDeadline(int shard, String key) {
+        if (!this.deadlines.get(shard).isEmpty())
+            this.deadlines.get(shard).remove(key);
+    }
+
+    private void reclaimExpired() {
+        for (int i = 0; i < this.nShards; ++i) {
+            List<Expiration> due;
+            do {
+                due = this.expirations.get(i).poll(System.nanoTime(),
+                                                   ShardedHashMapBackend.EXPIRE_BATCH);
+                if (due.size() > 0)
+                    this.expire(i, due);
+            } while (due.size() == ShardedHashMapBackend.EXPIRE_BATCH);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor newReclaimerExecutor() {
+        ScheduledThreadPoolExecutor ret = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ShardedHashMapBackend reclaimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ret.setRemoveOnCancelPolicy(true);
+        return ret;
+    }
+
+    private void expire(int shard, List<Expiration> due) {
+        List<String> keys   = due.stream().map(Expiration::key).toList();
+        int[]        locked = this.lockShards(new int[] { shard }, keys);
+        Firing       firing;
+        try {
+            Map<String, byte[]> changes = new HashMap<String, byte[]>();
+            for (Expiration expiration : due) {
+                String key      = expiration.key();
+                Long   deadline = this.deadlines.get(shard).get(key);
+                if (deadline == null || deadline != expiration.deadline())
+                    continue;
+                if (deadline - System.nanoTime() > 0) {
+                    this.expirations.get(shard).add(expiration, deadline);
+                    continue;
+                }
+
+                this.deadlines.get(shard).remove(key);
+                this.shards.get(shard).remove(key);
+                if (this.policies != null)
+                    this.policies[shard].recordRemoval(key);
+                changes.put(key, null);
+            }
+
+            this.countDeletions(shard, changes.size());
+            firing = this.publish(changes, locked);
+        } finally {
+            this.unlockShards(locked);
+        }
+        this.completeTriggers(firing);
+    }
+
+    // Charges a written value to its shard's memory budget, if there's one, evicting the keys that
+    // no longer fit. Returns the changes to report: the write, and the evicted keys as deletions.
+    private Map<String, byte[]> charge(int shard, String key, byte[] value) {
+        if (this.policies == null)
+            return Map.of(key, value);
+
+        long                size    = ShardedHashMapBackend.entrySize(key, value);
+        Map<String, byte[]> changes = new HashMap<String, byte[]>();
+        changes.put(key, value);
+        this.evict(shard, this.policies[shard].recordWrite(key, size), changes);
+        return changes;
+    }
+
+    private void evict(int shard, Map<String, Long> victims, Map<String, byte[]> changes) {
+        for (Map.Entry<String, Long> victim : victims.entrySet()) {
+            this.shards.get(shard).remove(victim.getKey());
+            this.clearDeadline(shard, victim.getKey());
+            this.evictionStatistics.recordEviction(victim.getValue());
+            changes.put(victim.getKey(), null);
+        }
+        this.countDeletions(shard, victims.size());
+    }
+
+    // Readers share the shard's lock, so they record accesses under another lock, and don't wait
+    // for it: losing some accesses under contention barely changes which keys are popular. Writers
+    // exclude readers, and use the policy directly.
+    private void recordAccess(int shard, String key) {
+        if (this.policies != null && this.policyLocks[shard].tryLock()) {
+            try {
+                this.policies[shard].recordAccess(key);
+            } finally {
+                this.policyLocks[shard].unlock();
+            }
+        }
+    }
+
+    // Keys are charged as their length in UTF-8
+    private static long entrySize(String key, byte[] value) {
+        long size = value.length;
+        for (int i = 0; i < key.length(); ++i) {
+            char c = key.charAt(i);
+            size  += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        return size;
+    }
+
+    // Copies values put into and read from shard maps, so that callers can't modify them
+    protected byte[] copyValue(byte[] value) {
+        return value.clone();
+    }
+
+    private void countDeletions(int shard, int deleted) {
+        if (deleted > 0 && this.deletions[shard].deleted(deleted, this.shards.get(shard).size())) {
+            this.shards.set(shard, this.rebuildShardMap.apply(this.shards.get(shard)));
+            this.deadlines.set(shard, new HashMap<String, Long>(this.deadlines.get(shard)));
+        }
+    }
+
+    private static long ttlNanos(long ttlMillis) {
+        if (ttlMillis <= 0)
+            throw new IllegalArgumentException("Invalid TTL: " + ttlMillis + "ms");
+        return TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    private int shardOf(String key) {
+        return Math.abs(key.hashCode()) % this.nShards;
     }
 
     private Map<Integer, List<String>> associateKeysToShards(Set<String> keys) {
         Map<Integer, List<String>> shardKeys = new TreeMap<Integer, List<String>>();
         for (String key : keys) {
-            int shard = Math.abs(key.hashCode()) % this.nShards;
+            int shard = this.shardOf(key);
 
             List<String> currentKeyList = shardKeys.get(shard);
             if (currentKeyList == null) {
@@ -148,12 +859,41 @@ public class ShardedHashMapBackend implements KeyValueDB {
         return shardKeys;
     }
 
+    public void setChangeListener(KeyChangeListener listener) {
+        this.changeListener = listener;
+    }
+
     public int getNShards() {
         return this.nShards;
     }
 
-    private Map<String, byte[]>[] getShards() {
-        Map<String, byte[]>[] ret = (Map<String, byte[]>[]) new Map[this.nShards];
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    // Bytes charged to the memory budget, or 0 without one
+    public long getUsedBytes() {
+        if (this.policies == null)
+            return 0;
+
+        long ret = 0;
+        for (int i = 0; i < this.nShards; ++i) {
+            this.locks[i].writeLock().lock();
+            try {
+                ret += this.policies[i].getBytes();
+            } finally {
+                this.locks[i].writeLock().unlock();
+            }
+        }
+        return ret;
+    }
+
+    public EvictionStatistics getEvictionStatistics() {
+        return this.evictionStatistics;
+    }
+
+    private List<Map<String, byte[]>> getShards() {
+        List<Map<String, byte[]>> ret = new ArrayList<Map<String, byte[]>>(this.nShards);
 
         int acquiredLocksCount = 0;
         try {
@@ -161,8 +901,8 @@ public class ShardedHashMapBackend implements KeyValueDB {
                 this.locks[i].readLock().lock();
                 acquiredLocksCount++;
 
-                ret[i] = this.shards[i].entrySet().stream().collect(
-                    Collectors.toMap(Map.Entry::getKey, e -> e.getValue().clone()));
+                ret.add(this.shards.get(i).entrySet().stream().collect(
+                    Collectors.toMap(Map.Entry::getKey, e -> this.copyValue(e.getValue()))));
             }
         } finally {
             for (int i = 0; i < acquiredLocksCount; ++i)
@@ -172,6 +912,19 @@ public class ShardedHashMapBackend implements KeyValueDB {
         return ret;
     }
 
+    private List<Map<String, Long>> getDeadlines() {
+        List<Map<String, Long>> ret = new ArrayList<Map<String, Long>>(this.nShards);
+        for (int i = 0; i < this.nShards; ++i) {
+            this.locks[i].readLock().lock();
+            try {
+                ret.add(new HashMap<String, Long>(this.deadlines.get(i)));
+            } finally {
+                this.locks[i].readLock().unlock();
+            }
+        }
+        return ret;
+    }
+
     @Override
     public Object clone() {
         return new ShardedHashMapBackend(this);
@@ -182,8 +935,8 @@ public class ShardedHashMapBackend implements KeyValueDB {
         if (o == null || o.getClass() != this.getClass())
             return false;
 
-        ShardedHashMapBackend backend     = (ShardedHashMapBackend) o;
-        Map<String, byte[]>[] otherShards = backend.getShards();
+        ShardedHashMapBackend     backend     = (ShardedHashMapBackend) o;
+        List<Map<String, byte[]>> otherShards = backend.getShards();
 
         if (this.nShards != backend.getNShards())
             return false;
@@ -194,7 +947,7 @@ public class ShardedHashMapBackend implements KeyValueDB {
                 this.locks[i].readLock().lock();
                 acquiredLocksCount++;
 
-                if (!this.shards[i].equals(otherShards[i]))
+                if (!this.shards.get(i).equals(otherShards.get(i)))
                     return false;
             }
         } finally {
@@ -214,7 +967,7 @@ public class ShardedHashMapBackend implements KeyValueDB {
                 this.locks[i].readLock().lock();
                 acquiredLocksCount++;
 
-                for (Map.Entry<String, byte[]> entry : this.shards[i].entrySet())
+                for (Map.Entry<String, byte[]> entry : this.shards.get(i).entrySet())
                     retMap.put(entry.getKey(), Arrays.toString(entry.getValue()));
             }
         } finally {
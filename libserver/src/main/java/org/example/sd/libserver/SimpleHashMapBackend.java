@@ -16,22 +16,21 @@
 
 package org.example.sd.libserver;
 
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.locks.Condition;
 
 import org.example.sd.common.KeyValueDB;
 
 public class SimpleHashMapBackend extends SingleLockHashMapBackend {
-    private Condition databaseChangedCondition;
-    private Set<Long> waitingTriggers;
+    private Condition           databaseChangedCondition;
+    private GetWhenTriggerIndex waitingTriggers;
 
     public SimpleHashMapBackend() {
         super();
         this.databaseChangedCondition = this.lock.writeLock().newCondition();
-        this.waitingTriggers          = new HashSet<Long>();
+        this.waitingTriggers          = new GetWhenTriggerIndex();
     }
 
     public SimpleHashMapBackend(SimpleHashMapBackend database) {
@@ -39,37 +38,35 @@ public class SimpleHashMapBackend extends SingleLockHashMapBackend {
         this.map = database.getMap();
     }
 
-    protected void summonTriggersAfterPut(String key, byte[] value) {
-        if (this.waitingTriggers.size() > 0) {
-            this.unsignaledTriggers.addAll(this.waitingTriggers);
+    protected List<GetWhenTrigger> summonTriggersAfterPut(String key, byte[] value) {
+        List<GetWhenTrigger> fired = this.waitingTriggers.fire(key, this.map);
+        if (fired.size() > 0)
             this.databaseChangedCondition.signalAll();
-        }
+        return fired;
     }
 
-    protected void summonTriggersAfterMultiPut(Map<String, byte[]> pairs) {
-        if (this.waitingTriggers.size() > 0) {
-            this.unsignaledTriggers.addAll(this.waitingTriggers);
+    protected List<GetWhenTrigger> summonTriggersAfterMultiPut(Map<String, byte[]> pairs) {
+        List<GetWhenTrigger> fired = new ArrayList<GetWhenTrigger>();
+        for (String key : pairs.keySet())
+            fired.addAll(this.waitingTriggers.fire(key, this.map));
+
+        if (fired.size() > 0)
             this.databaseChangedCondition.signalAll();
-        }
+        return fired;
     }
 
-    protected void getWhenWait(String keyCond, byte[] valueCond) {
-        long threadId = Thread.currentThread().threadId();
-        this.waitingTriggers.add(threadId);
-
-        while (!Arrays.equals(this.map.get(keyCond), valueCond)) {
+    protected void getWhenWait(GetWhenTrigger trigger) {
+        this.waitingTriggers.add(trigger);
+        while (!trigger.isFired())
             this.databaseChangedCondition.awaitUninterruptibly();
+    }
 
-            // Signal end of trigger execution
-            if (this.unsignaledTriggers.contains(threadId)) {
-                this.unsignaledTriggers.remove(threadId);
-
-                if (this.unsignaledTriggers.size() == 0)
-                    this.triggersDoneCondition.signalAll();
-            }
-        }
+    protected void registerTrigger(GetWhenTrigger trigger) {
+        this.waitingTriggers.add(trigger);
+    }
 
-        this.waitingTriggers.remove(threadId);
+    protected void unregisterTrigger(GetWhenTrigger trigger) {
+        this.waitingTriggers.remove(trigger);
     }
 
     @Override
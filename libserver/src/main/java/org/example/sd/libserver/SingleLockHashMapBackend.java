@@ -18,40 +18,61 @@ package org.example.sd.libserver;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import org.example.sd.common.KeyValueDB;
 
-public abstract class SingleLockHashMapBackend implements KeyValueDB {
-    protected ReadWriteLock       lock;
-    protected Condition           triggersDoneCondition;
-    protected Set<Long>           unsignaledTriggers;
-    protected Map<String, byte[]> map;
+public abstract class SingleLockHashMapBackend
+    implements KeyValueDB, AsyncGetWhenBackend, WatchableBackend {
+
+    protected ReadWriteLock              lock;
+    protected Map<String, byte[]>        map;
+    protected volatile KeyChangeListener changeListener;
+    private DeletionCounter              deletions;
 
     protected SingleLockHashMapBackend() {
-        this.lock                  = new ReentrantReadWriteLock();
-        this.triggersDoneCondition = this.lock.writeLock().newCondition();
-        this.unsignaledTriggers    = new HashSet<Long>();
-        this.map                   = new HashMap<String, byte[]>();
+        this.lock           = new ReentrantReadWriteLock();
+        this.map            = new HashMap<String, byte[]>();
+        this.changeListener = null;
+        this.deletions      = new DeletionCounter();
     }
 
     public void put(String key, byte[] value) {
+        List<GetWhenTrigger> fired;
+
         this.lock.writeLock().lock();
         try {
-            while (this.unsignaledTriggers.size() > 0)
-                this.triggersDoneCondition.awaitUninterruptibly();
+            fired = this.putLocked(key, value);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        this.completeAsyncTriggers(fired);
+    }
+
+    public boolean putIf(String key, byte[] expected, byte[] value) {
+        List<GetWhenTrigger> fired;
 
-            this.map.put(key, value.clone());
-            this.summonTriggersAfterPut(key, value);
+        this.lock.writeLock().lock();
+        try {
+            if (!Arrays.equals(this.map.get(key), expected))
+                return false;
+
+            fired = this.putLocked(key, value);
         } finally {
             this.lock.writeLock().unlock();
         }
+
+        this.completeAsyncTriggers(fired);
+        return true;
     }
 
     public byte[] get(String key) {
@@ -67,18 +88,130 @@ public abstract class SingleLockHashMapBackend implements KeyValueDB {
     }
 
     public void multiPut(Map<String, byte[]> pairs) {
+        List<GetWhenTrigger> fired;
+
         this.lock.writeLock().lock();
         try {
-            while (this.unsignaledTriggers.size() > 0)
-                this.triggersDoneCondition.awaitUninterruptibly();
+            fired = this.multiPutLocked(pairs);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        this.completeAsyncTriggers(fired);
+    }
 
-            for (Map.Entry<String, byte[]> pair : pairs.entrySet())
-                this.map.put(pair.getKey(), pair.getValue().clone());
+    public boolean multiPutIf(Map<String, byte[]> preconditions, Map<String, byte[]> pairs) {
+        List<GetWhenTrigger> fired;
 
-            this.summonTriggersAfterMultiPut(pairs);
+        this.lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, byte[]> precondition : preconditions.entrySet())
+                if (!Arrays.equals(this.map.get(precondition.getKey()), precondition.getValue()))
+                    return false;
+
+            fired = this.multiPutLocked(pairs);
         } finally {
             this.lock.writeLock().unlock();
         }
+
+        this.completeAsyncTriggers(fired);
+        return true;
+    }
+
+    public long add(String key, long delta) {
+        return ValueOperations.toLong(this.update(key, v -> ValueOperations.add(v, delta)));
+    }
+
+    public int append(String key, byte[] suffix) {
+        return this.update(key, v -> ValueOperations.append(v, suffix)).length;
+    }
+
+    public byte[] getRange(String key, int offset, int length) {
+        this.lock.readLock().lock();
+        try {
+            return ValueOperations.getRange(this.map.get(key), offset, length);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public int putRange(String key, int offset, byte[] bytes) {
+        return this.update(key, v -> ValueOperations.putRange(v, offset, bytes)).length;
+    }
+
+    public boolean delete(String key) {
+        return this.multiDelete(Set.of(key)) > 0;
+    }
+
+    public int multiDelete(Set<String> keys) {
+        List<GetWhenTrigger> fired;
+        Map<String, byte[]>  deleted = new HashMap<String, byte[]>(); // Keys that existed
+
+        this.lock.writeLock().lock();
+        try {
+            for (String key : keys)
+                if (this.map.remove(key) != null)
+                    deleted.put(key, null);
+
+            fired = this.summonTriggersAfterMultiPut(deleted);
+
+            KeyChangeListener listener = this.changeListener;
+            if (listener != null && !deleted.isEmpty())
+                listener.keysChanged(deleted);
+
+            if (!deleted.isEmpty() && this.deletions.deleted(deleted.size(), this.map.size()))
+                this.map = new HashMap<String, byte[]>(this.map);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        this.completeAsyncTriggers(fired);
+        return deleted.size();
+    }
+
+    // Replaces a value (null if missing) by a function of it, returning the new value. The function
+    // may modify the value in place, as readers only copy it under the read lock.
+    private byte[] update(String key, UnaryOperator<byte[]> update) {
+        List<GetWhenTrigger> fired;
+        byte[]               value;
+
+        this.lock.writeLock().lock();
+        try {
+            value = update.apply(this.map.get(key));
+            fired = this.storeLocked(key, value);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        this.completeAsyncTriggers(fired);
+        return value;
+    }
+
+    // These are called with the write lock held, and return the triggers that were fired
+    private List<GetWhenTrigger> putLocked(String key, byte[] value) {
+        return this.storeLocked(key, value.clone());
+    }
+
+    // Unlike putLocked, keeps value itself, which the listener may only copy
+    private List<GetWhenTrigger> storeLocked(String key, byte[] value) {
+        this.map.put(key, value);
+        List<GetWhenTrigger> fired = this.summonTriggersAfterPut(key, value);
+
+        KeyChangeListener listener = this.changeListener;
+        if (listener != null)
+            listener.keysChanged(Map.of(key, value));
+        return fired;
+    }
+
+    private List<GetWhenTrigger> multiPutLocked(Map<String, byte[]> pairs) {
+        for (Map.Entry<String, byte[]> pair : pairs.entrySet())
+            this.map.put(pair.getKey(), pair.getValue().clone());
+        List<GetWhenTrigger> fired = this.summonTriggersAfterMultiPut(pairs);
+
+        KeyChangeListener listener = this.changeListener;
+        if (listener != null)
+            listener.keysChanged(pairs);
+        return fired;
     }
 
     public Map<String, byte[]> multiGet(Set<String> keys) {
@@ -99,19 +232,106 @@ public abstract class SingleLockHashMapBackend implements KeyValueDB {
     }
 
     public byte[] getWhen(String key, String keyCond, byte[] valueCond) {
+        GetWhenTrigger trigger = new GetWhenTrigger(key, keyCond, valueCond);
+        this.waitForTrigger(trigger);
+        return trigger.getValue();
+    }
+
+    public Map<String, byte[]>
+        multiGetWhen(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+
+        if (conditions.isEmpty())
+            throw new IllegalArgumentException("multiGetWhen requires at least one condition");
+
+        GetWhenTrigger trigger = new GetWhenTrigger(keys, conditions, allOf);
+        this.waitForTrigger(trigger);
+        return trigger.getValues();
+    }
+
+    public CompletableFuture<byte[]> getWhenAsync(String key, String keyCond, byte[] valueCond) {
+        GetWhenTrigger trigger = new GetWhenTrigger(key, keyCond, valueCond);
+        return this.registerAsyncTrigger(trigger, () -> trigger.getValue());
+    }
+
+    public CompletableFuture<Map<String, byte[]>>
+        multiGetWhenAsync(Set<String> keys, Map<String, byte[]> conditions, boolean allOf) {
+
+        if (conditions.isEmpty())
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("multiGetWhen requires at least one condition"));
+
+        GetWhenTrigger trigger = new GetWhenTrigger(keys, conditions, allOf);
+        return this.registerAsyncTrigger(trigger, () -> trigger.getValues());
+    }
+
+    public void setChangeListener(KeyChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    private void waitForTrigger(GetWhenTrigger trigger) {
+        if (this.tryFireShared(trigger))
+            return;
+
+        this.lock.writeLock().lock();
+        try {
+            if (!trigger.tryFire(this.map))
+                this.getWhenWait(trigger);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private <T> CompletableFuture<T> registerAsyncTrigger(GetWhenTrigger trigger,
+                                                          Supplier<T>    result) {
+        if (this.tryFireShared(trigger))
+            return CompletableFuture.completedFuture(result.get());
+
         this.lock.writeLock().lock();
         try {
-            this.getWhenWait(keyCond, valueCond);
+            if (trigger.tryFire(this.map))
+                return CompletableFuture.completedFuture(result.get());
 
-            byte[] value = this.map.get(key);
-            if (value != null)
-                value = value.clone();
-            return value;
+            trigger.setFuture(new CompletableFuture<Map<String, byte[]>>());
+            this.registerTrigger(trigger);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        // Cancelled or timed out triggers mustn't stay registered
+        CompletableFuture<T> ret = trigger.getFuture().thenApply(values -> result.get());
+        ret.whenComplete((value, e) -> {
+            if (e != null)
+                this.cancelTrigger(trigger);
+        });
+        return ret;
+    }
+
+    private void cancelTrigger(GetWhenTrigger trigger) {
+        this.lock.writeLock().lock();
+        try {
+            this.unregisterTrigger(trigger);
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
+    // Fast path for conditions that already hold, which doesn't exclude other readers. The trigger
+    // isn't registered yet, so it's only accessed by this thread.
+    private boolean tryFireShared(GetWhenTrigger trigger) {
+        this.lock.readLock().lock();
+        try {
+            return trigger.tryFire(this.map);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void completeAsyncTriggers(List<GetWhenTrigger> fired) {
+        for (GetWhenTrigger trigger : fired)
+            if (trigger.getFuture() != null)
+                trigger.getFuture().complete(trigger.getValues());
+    }
+
     protected Map<String, byte[]> getMap() {
         this.lock.readLock().lock();
         try {
@@ -154,7 +374,17 @@ public abstract class SingleLockHashMapBackend implements KeyValueDB {
         }
     }
 
-    protected abstract void summonTriggersAfterPut(String key, byte[] value);
-    protected abstract void summonTriggersAfterMultiPut(Map<String, byte[]> pairs);
-    protected abstract void getWhenWait(String keyCond, byte[] valueCond);
+    // These are called with the write lock held, and return the triggers that were fired. Deleted
+    // keys are reported as multiPuts of null values.
+    protected abstract List<GetWhenTrigger> summonTriggersAfterPut(String key, byte[] value);
+    protected abstract List<GetWhenTrigger> summonTriggersAfterMultiPut(Map<String, byte[]> pairs);
+
+    // Called with the write lock held. Must return only after the trigger is fired.
+    protected abstract void getWhenWait(GetWhenTrigger trigger);
+
+    // Called with the write lock held, for a trigger that no thread waits on (it has a future)
+    protected abstract void registerTrigger(GetWhenTrigger trigger);
+
+    // Called with the write lock held. The trigger may have been fired already.
+    protected abstract void unregisterTrigger(GetWhenTrigger trigger);
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+// Memory used by a size class of a SlabAllocator. Values too large for any class get a slab each,
+// and are reported as a class with a chunkSize of 0.
+public class SizeClassStatistics {
+    private final int  chunkSize;
+    private final int  slabs;
+    private final long chunks;
+    private final long usedChunks;
+    private final long usedBytes;
+
+    public SizeClassStatistics(int  chunkSize,
+                               int  slabs,
+                               long chunks,
+                               long usedChunks,
+                               long usedBytes) {
+
+        this.chunkSize  = chunkSize;
+        this.slabs      = slabs;
+        this.chunks     = chunks;
+        this.usedChunks = usedChunks;
+        this.usedBytes  = usedBytes;
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    public int getSlabs() {
+        return this.slabs;
+    }
+
+    // Chunks carved from the slabs so far, in use or free
+    public long getChunks() {
+        return this.chunks;
+    }
+
+    public long getUsedChunks() {
+        return this.usedChunks;
+    }
+
+    // Bytes of the values in the used chunks, which are at most as large as them
+    public long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "SizeClassStatistics(chunkSize=%d, slabs=%d, chunks=%d, usedChunks=%d, usedBytes=%d)",
+            this.chunkSize,
+            this.slabs,
+            this.chunks,
+            this.usedChunks,
+            this.usedBytes);
+    }
+}
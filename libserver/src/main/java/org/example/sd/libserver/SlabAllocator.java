@@ -0,0 +1,284 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Keeps values outside the heap, in direct ByteBuffers (slabs), like memcached: each slab is split
+// into chunks of one size class, and a value takes a chunk of the smallest class it fits in. Freed
+// chunks are reused by later values of their class. Values larger than a slab get a slab of their
+// own, released when they are freed. Values are referred to by handles packing their slab, their
+// offset in it, and their length.
+//
+// Allocating and freeing lock the value's size class, while reading is lock-free: callers must only
+// read a handle between its allocation and its release, and must order those with their own locks.
+public class SlabAllocator {
+    private static final int    OFFSET_BITS    = 20;
+    private static final int    LENGTH_BITS    = OFFSET_BITS + 1;
+    private static final int    SLAB_BITS      = 64 - OFFSET_BITS - LENGTH_BITS;
+    private static final int    SLAB_SIZE      = 1 << SlabAllocator.OFFSET_BITS;
+    private static final long   LENGTH_MASK    = (1L << SlabAllocator.LENGTH_BITS) - 1;
+    private static final int    MIN_CHUNK_SIZE = 64;
+    private static final double GROWTH_FACTOR  = 1.25;
+    private static final int    LARGE          = -1; // Size class of slabs holding one large value
+
+    private record Slab(ByteBuffer buffer, int sizeClass) {}
+
+    private static class SizeClass {
+        private final int  chunkSize;
+        private final Lock lock       = new ReentrantLock();
+        private long[]     free       = new long[16]; // Freed chunks, as handles of length 0
+        private int        freeCount  = 0;
+        private int        slab       = -1;           // Slab being carved into chunks
+        private int        nextOffset = 0;
+        private int        slabs      = 0;
+        private long       usedChunks = 0;
+        private long       usedBytes  = 0;
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    private final int[]         chunkSizes;
+    private SizeClass[]         sizeClasses;
+    private Lock                slabsLock;
+    private volatile Slab[]     slabs;
+    private int                 slabCount;
+    private ArrayDeque<Integer> releasedSlabs;
+    private int                 largeSlabs;
+    private long                largeBytes;
+
+    public SlabAllocator() {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (int size = SlabAllocator.MIN_CHUNK_SIZE; size < SlabAllocator.SLAB_SIZE / 2; ) {
+            sizes.add(size);
+            size = (int) Math.ceil(size * SlabAllocator.GROWTH_FACTOR / 8) * 8;
+        }
+        sizes.add(SlabAllocator.SLAB_SIZE);
+
+        this.chunkSizes  = sizes.stream().mapToInt(Integer::intValue).toArray();
+        this.sizeClasses = new SizeClass[this.chunkSizes.length];
+        for (int i = 0; i < this.chunkSizes.length; ++i)
+            this.sizeClasses[i] = new SizeClass(this.chunkSizes[i]);
+
+        this.slabsLock     = new ReentrantLock();
+        this.slabs         = new Slab[64];
+        this.slabCount     = 0;
+        this.releasedSlabs = new ArrayDeque<Integer>();
+        this.largeSlabs    = 0;
+        this.largeBytes    = 0;
+    }
+
+    public long allocate(byte[] value) {
+        int sizeClass = this.sizeClassOf(value.length);
+        if (sizeClass == SlabAllocator.LARGE) {
+            int slab = this.newSlab(SlabAllocator.LARGE, value.length);
+            this.slabs[slab].buffer().put(0, value);
+            return SlabAllocator.handle(slab, 0, 0);
+        }
+
+        long      chunk;
+        SizeClass chunks = this.sizeClasses[sizeClass];
+        chunks.lock.lock();
+        try {
+            if (chunks.freeCount > 0) {
+                chunk = chunks.free[--chunks.freeCount];
+            } else {
+                boolean full = chunks.nextOffset + chunks.chunkSize > SlabAllocator.SLAB_SIZE;
+                if (chunks.slab < 0 || full) {
+                    chunks.slab       = this.newSlab(sizeClass, SlabAllocator.SLAB_SIZE);
+                    chunks.nextOffset = 0;
+                    chunks.slabs++;
+                }
+                chunk              = SlabAllocator.handle(chunks.slab, chunks.nextOffset, 0);
+                chunks.nextOffset += chunks.chunkSize;
+            }
+
+            chunks.usedChunks++;
+            chunks.usedBytes += value.length;
+        } finally {
+            chunks.lock.unlock();
+        }
+
+        // The chunk is only this thread's, so it's written without the lock
+        long handle = chunk | value.length;
+        Slab slab   = this.slabs[SlabAllocator.slabOf(handle)];
+        slab.buffer().put(SlabAllocator.offsetOf(handle), value);
+        return handle;
+    }
+
+    // Replaces the value of a handle, in its chunk if the new value belongs to the same size class,
+    // and returns the new handle. The old one mustn't be read anymore.
+    public long reallocate(long handle, byte[] value) {
+        Slab slab      = this.slabs[SlabAllocator.slabOf(handle)];
+        int  sizeClass = this.sizeClassOf(value.length);
+        if (slab.sizeClass() == SlabAllocator.LARGE || slab.sizeClass() != sizeClass) {
+            long ret = this.allocate(value);
+            this.free(handle);
+            return ret;
+        }
+
+        SizeClass chunks = this.sizeClasses[sizeClass];
+        chunks.lock.lock();
+        try {
+            chunks.usedBytes += value.length - SlabAllocator.lengthOf(handle);
+        } finally {
+            chunks.lock.unlock();
+        }
+
+        slab.buffer().put(SlabAllocator.offsetOf(handle), value);
+        return (handle & ~SlabAllocator.LENGTH_MASK) | value.length;
+    }
+
+    public byte[] read(long handle) {
+        Slab   slab  = this.slabs[SlabAllocator.slabOf(handle)];
+        byte[] value = new byte[this.lengthOf(handle, slab)];
+        slab.buffer().get(SlabAllocator.offsetOf(handle), value);
+        return value;
+    }
+
+    public void free(long handle) {
+        int  slabIndex = SlabAllocator.slabOf(handle);
+        Slab slab      = this.slabs[slabIndex];
+        if (slab.sizeClass() == SlabAllocator.LARGE) {
+            this.slabsLock.lock();
+            try {
+                this.slabs[slabIndex] = null; // Its memory is released once the buffer is collected
+                this.releasedSlabs.push(slabIndex);
+                this.largeSlabs--;
+                this.largeBytes -= slab.buffer().capacity();
+            } finally {
+                this.slabsLock.unlock();
+            }
+            return;
+        }
+
+        SizeClass chunks = this.sizeClasses[slab.sizeClass()];
+        chunks.lock.lock();
+        try {
+            if (chunks.freeCount == chunks.free.length)
+                chunks.free = Arrays.copyOf(chunks.free, 2 * chunks.free.length);
+            chunks.free[chunks.freeCount++] = handle & ~SlabAllocator.LENGTH_MASK;
+
+            chunks.usedChunks--;
+            chunks.usedBytes -= SlabAllocator.lengthOf(handle);
+        } finally {
+            chunks.lock.unlock();
+        }
+    }
+
+    // One entry per size class, ascending, followed by one for large values
+    public List<SizeClassStatistics> getStatistics() {
+        List<SizeClassStatistics> ret = new ArrayList<SizeClassStatistics>();
+        for (SizeClass chunks : this.sizeClasses) {
+            chunks.lock.lock();
+            try {
+                long carved = chunks.slabs == 0 ? 0
+                    : (long) (chunks.slabs - 1) * (SlabAllocator.SLAB_SIZE / chunks.chunkSize) +
+                          chunks.nextOffset / chunks.chunkSize;
+                ret.add(new SizeClassStatistics(chunks.chunkSize,
+                                                chunks.slabs,
+                                                carved,
+                                                chunks.usedChunks,
+                                                chunks.usedBytes));
+            } finally {
+                chunks.lock.unlock();
+            }
+        }
+
+        this.slabsLock.lock();
+        try {
+            ret.add(new SizeClassStatistics(0,
+                                            this.largeSlabs,
+                                            this.largeSlabs,
+                                            this.largeSlabs,
+                                            this.largeBytes));
+        } finally {
+            this.slabsLock.unlock();
+        }
+        return ret;
+    }
+
+    private int newSlab(int sizeClass, int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+
+        this.slabsLock.lock();
+        try {
+            int slab;
+            if (!this.releasedSlabs.isEmpty()) {
+                slab = this.releasedSlabs.pop();
+            } else {
+                if (this.slabCount == 1 << SlabAllocator.SLAB_BITS)
+                    throw new IllegalStateException("Too many slabs");
+                if (this.slabCount == this.slabs.length)
+                    this.slabs = Arrays.copyOf(this.slabs, 2 * this.slabs.length);
+                slab = this.slabCount++;
+            }
+
+            this.slabs[slab] = new Slab(buffer, sizeClass);
+            if (sizeClass == SlabAllocator.LARGE) {
+                this.largeSlabs++;
+                this.largeBytes += capacity;
+            }
+            return slab;
+        } finally {
+            this.slabsLock.unlock();
+        }
+    }
+
+    private int sizeClassOf(int length) {
+        if (length > SlabAllocator.SLAB_SIZE)
+            return SlabAllocator.LARGE;
+
+        int i = Arrays.binarySearch(this.chunkSizes, length);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private int lengthOf(long handle, Slab slab) {
+        return slab.sizeClass() == SlabAllocator.LARGE ? slab.buffer().capacity()
+                                                       : SlabAllocator.lengthOf(handle);
+    }
+
+    private static long handle(int slab, int offset, int length) {
+        return ((long) slab << (SlabAllocator.OFFSET_BITS + SlabAllocator.LENGTH_BITS)) |
+            ((long) offset << SlabAllocator.LENGTH_BITS) | length;
+    }
+
+    private static int slabOf(long handle) {
+        return (int) (handle >>> (SlabAllocator.OFFSET_BITS + SlabAllocator.LENGTH_BITS));
+    }
+
+    private static int offsetOf(long handle) {
+        return (int) ((handle >>> SlabAllocator.LENGTH_BITS) & (SlabAllocator.SLAB_SIZE - 1));
+    }
+
+    private static int lengthOf(long handle) {
+        return (int) (handle & SlabAllocator.LENGTH_MASK);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SlabAllocator(sizeClasses=%d)", this.chunkSizes.length);
+    }
+}
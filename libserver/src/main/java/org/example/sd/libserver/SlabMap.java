@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+// Map whose values are kept by a SlabAllocator, with only their handles on the heap. Values are
+// copied in by put and out by get, so callers never share them. Overwriting or removing a value
+// frees its chunk. Concurrent reads are safe, but writes must exclude every other access.
+//
+// Unlike other maps, put and remove return PRESENT instead of the previous value, if there was one,
+// so that writes don't copy values out of their slabs just to drop them.
+public class SlabMap extends AbstractMap<String, byte[]> {
+    public static final byte[] PRESENT = new byte[0];
+
+    private HashMap<String, Long> handles;
+    private SlabAllocator         allocator;
+
+    public SlabMap(SlabAllocator allocator) {
+        this.handles   = new HashMap<String, Long>();
+        this.allocator = allocator;
+    }
+
+    @Override
+    public byte[] get(Object key) {
+        Long handle = this.handles.get(key);
+        return handle == null ? null : this.allocator.read(handle);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.handles.containsKey(key);
+    }
+
+    @Override
+    public byte[] put(String key, byte[] value) {
+        Long handle = this.handles.get(key);
+        if (handle == null) {
+            this.handles.put(key, this.allocator.allocate(value));
+            return null;
+        }
+
+        this.handles.put(key, this.allocator.reallocate(handle, value));
+        return SlabMap.PRESENT;
+    }
+
+    @Override
+    public byte[] remove(Object key) {
+        Long handle = this.handles.remove(key);
+        if (handle == null)
+            return null;
+
+        this.allocator.free(handle);
+        return SlabMap.PRESENT;
+    }
+
+    @Override
+    public void clear() {
+        for (long handle : this.handles.values())
+            this.allocator.free(handle);
+        this.handles.clear();
+    }
+
+    @Override
+    public int size() {
+        return this.handles.size();
+    }
+
+    // Copies the handles into a table sized for them, as HashMap tables never shrink
+    public SlabMap compact() {
+        this.handles = new HashMap<String, Long>(this.handles);
+        return this;
+    }
+
+    @Override
+    public Set<Map.Entry<String, byte[]>> entrySet() {
+        return new AbstractSet<Map.Entry<String, byte[]>>() {
+            public int size() {
+                return SlabMap.this.handles.size();
+            }
+
+            public Iterator<Map.Entry<String, byte[]>> iterator() {
+                Iterator<Map.Entry<String, Long>> i = SlabMap.this.handles.entrySet().iterator();
+                return new Iterator<Map.Entry<String, byte[]>>() {
+                    private Long current = null;
+
+                    public boolean hasNext() {
+                        return i.hasNext();
+                    }
+
+                    public Map.Entry<String, byte[]> next() {
+                        Map.Entry<String, Long> entry = i.next();
+                        this.current                  = entry.getValue();
+                        return new AbstractMap.SimpleImmutableEntry<String, byte[]>(
+                            entry.getKey(),
+                            SlabMap.this.allocator.read(this.current));
+                    }
+
+                    public void remove() {
+                        i.remove();
+                        SlabMap.this.allocator.free(this.current);
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.example.sd.common.Buffer;
+
+// Routes a backend's changes to the subscriptions that watch the changed keys
+public class SubscriptionManager implements KeyChangeListener {
+    private ConcurrentHashMap<String, Set<SubscriptionQueue>> keySubscriptions;
+
+    // Subscriptions of each connection (identified by its send buffer)
+    private Lock                                         lock;
+    private Map<Buffer, Map<Integer, SubscriptionQueue>> connectionSubscriptions;
+
+    public SubscriptionManager() {
+        this.keySubscriptions        = new ConcurrentHashMap<String, Set<SubscriptionQueue>>();
+        this.lock                    = new ReentrantLock();
+        this.connectionSubscriptions =
+            new IdentityHashMap<Buffer, Map<Integer, SubscriptionQueue>>();
+    }
+
+    // The subscription only starts sending notifications once started, but changes are already
+    // queued, so that none is lost between reading the initial values and starting it
+    public SubscriptionQueue subscribe(Buffer sendBuffer, int id, Set<String> keys) {
+        SubscriptionQueue queue = new SubscriptionQueue(id, sendBuffer, keys);
+
+        SubscriptionQueue replaced;
+        this.lock.lock();
+        try {
+            replaced = this.connectionSubscriptions
+                           .computeIfAbsent(sendBuffer, b -> new HashMap<>())
+                           .put(id, queue);
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (replaced != null)
+            this.removeQueue(replaced);
+
+        for (String key : keys) {
+            this.keySubscriptions.compute(key, (k, subscriptions) -> {
+                if (subscriptions == null)
+                    subscriptions = ConcurrentHashMap.newKeySet();
+                subscriptions.add(queue);
+                return subscriptions;
+            });
+        }
+
+        return queue;
+    }
+
+    public void unsubscribe(Buffer sendBuffer, int id) {
+        SubscriptionQueue queue = null;
+
+        this.lock.lock();
+        try {
+            Map<Integer, SubscriptionQueue> subscriptions =
+                this.connectionSubscriptions.get(sendBuffer);
+            if (subscriptions != null) {
+                queue = subscriptions.remove(id);
+                if (subscriptions.isEmpty())
+                    this.connectionSubscriptions.remove(sendBuffer);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (queue != null)
+            this.removeQueue(queue);
+    }
+
+    // Called once a connection is closed
+    public void unsubscribeAll(Buffer sendBuffer) {
+        List<SubscriptionQueue> queues;
+
+        this.lock.lock();
+        try {
+            Map<Integer, SubscriptionQueue> subscriptions =
+                this.connectionSubscriptions.remove(sendBuffer);
+            if (subscriptions == null)
+                return;
+            queues = new ArrayList<SubscriptionQueue>(subscriptions.values());
+        } finally {
+            this.lock.unlock();
+        }
+
+        for (SubscriptionQueue queue : queues)
+            this.removeQueue(queue);
+    }
+
+    // Called once a connection has written a notification of one of its subscriptions
+    public void notificationWritten(Buffer sendBuffer, int id) {
+        SubscriptionQueue queue;
+
+        this.lock.lock();
+        try {
+            Map<Integer, SubscriptionQueue> subscriptions =
+                this.connectionSubscriptions.get(sendBuffer);
+            queue = subscriptions == null ? null : subscriptions.get(id);
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (queue != null)
+            queue.written();
+    }
+
+    public void keysChanged(Map<String, byte[]> changes) {
+        if (this.keySubscriptions.isEmpty())
+            return;
+
+        for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+            Set<SubscriptionQueue> subscriptions = this.keySubscriptions.get(change.getKey());
+            if (subscriptions != null)
+                for (SubscriptionQueue queue : subscriptions)
+                    queue.changed(change.getKey(), change.getValue());
+        }
+    }
+
+    private void removeQueue(SubscriptionQueue queue) {
+        queue.close();
+        for (String key : queue.getKeys()) {
+            this.keySubscriptions.computeIfPresent(key, (k, subscriptions) -> {
+                subscriptions.remove(queue);
+                return subscriptions.isEmpty() ? null : subscriptions;
+            });
+        }
+    }
+
+    public int getSubscriptions() {
+        this.lock.lock();
+        try {
+            return this.connectionSubscriptions.values().stream().mapToInt(Map::size).sum();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SubscriptionManager(subscriptions=%d, watchedKeys=%d)",
+                             this.getSubscriptions(),
+                             this.keySubscriptions.size());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.example.sd.common.Buffer;
+import org.example.sd.common.BufferException;
+import org.example.sd.common.KeyChangedMessage;
+
+// Notifications of a subscription, on their way to its connection. At most MAX_IN_FLIGHT of them
+// are in the connection's send buffer at once, and the others wait here, with at most one pending
+// notification per key: a newer change replaces the pending notification of its key. A slow
+// subscriber thus skips intermediate values (but always receives the latest one), and its queue
+// never grows past the number of keys it watches.
+public class SubscriptionQueue {
+    public static final int MAX_IN_FLIGHT = 16;
+
+    private final int         id;
+    private final Buffer      sendBuffer;
+    private final Set<String> keys;
+
+    private Lock                                     lock;
+    private LinkedHashMap<String, KeyChangedMessage> pending;
+    private long                                     sequence;
+    private int                                      inFlight;
+    private boolean                                  started;
+    private boolean                                  closed;
+
+    public SubscriptionQueue(int id, Buffer sendBuffer, Set<String> keys) {
+        this.id         = id;
+        this.sendBuffer = sendBuffer;
+        this.keys       = new HashSet<String>(keys);
+
+        this.lock     = new ReentrantLock();
+        this.pending  = new LinkedHashMap<String, KeyChangedMessage>();
+        this.sequence = 0;
+        this.inFlight = 0;
+        this.started  = false;
+        this.closed   = false;
+    }
+
+    public void changed(String key, byte[] value) {
+        this.lock.lock();
+        try {
+            if (this.closed)
+                return;
+
+            // Moved to the end, so that notifications are always sent in sequence order
+            this.sequence++;
+            this.pending.remove(key);
+            this.pending.put(key, new KeyChangedMessage(this.id, this.sequence, key, value));
+            this.sendPending();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Notifications are held until the reply with the initial values is sent
+    public void start() {
+        this.lock.lock();
+        try {
+            this.started = true;
+            this.sendPending();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Called once a notification leaves the send buffer
+    public void written() {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            this.sendPending();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.pending.clear();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void sendPending() {
+        Iterator<Map.Entry<String, KeyChangedMessage>> it = this.pending.entrySet().iterator();
+        while (this.started && !this.closed && this.inFlight < SubscriptionQueue.MAX_IN_FLIGHT &&
+               it.hasNext()) {
+
+            KeyChangedMessage message = it.next().getValue();
+            it.remove();
+
+            try {
+                this.sendBuffer.send(message);
+                this.inFlight++;
+            } catch (BufferException e) {
+                this.closed = true; // Connection closed
+                this.pending.clear();
+            }
+        }
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Set<String> getKeys() {
+        return new HashSet<String>(this.keys);
+    }
+
+    public int getPendingNotifications() {
+        this.lock.lock();
+        try {
+            return this.pending.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        this.lock.lock();
+        try {
+            return String.format("SubscriptionQueue(id=%d, keys=%s, pending=%d, inFlight=%d)",
+                                 this.id,
+                                 this.keys,
+                                 this.pending.size(),
+                                 this.inFlight);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
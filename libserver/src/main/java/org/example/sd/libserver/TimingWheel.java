@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Hashed hierarchical timing wheel (Varghese and Lauck): level i has WHEEL_SIZE slots, each
+// spanning WHEEL_SIZE^i ticks. A timer goes into the lowest level that covers its deadline, and is
+// moved into lower levels as time reaches its slot, so that adding a timer is O(1), and each timer
+// is moved at most once per level. Deadlines are rounded up to the next tick.
+public class TimingWheel<T> {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << TimingWheel.WHEEL_BITS;
+    private static final int LEVELS     = 6;
+    private static final int MAX_LEVEL  = TimingWheel.LEVELS - 1;
+    private static final int N_SLOTS    = TimingWheel.LEVELS * TimingWheel.WHEEL_SIZE;
+
+    private record Timer<T>(T item, long tick) {}
+
+    private final long           tickNanos;
+    private final long           origin;
+    private Lock                 lock;
+    private List<List<Timer<T>>> slots; // Slot s of level l is slots.get(l * WHEEL_SIZE + s)
+    private ArrayDeque<T>        due;
+    private long                 currentTick;
+    private int                  size;
+
+    public TimingWheel(long tickNanos) {
+        this.tickNanos   = tickNanos;
+        this.origin      = System.nanoTime();
+        this.lock        = new ReentrantLock();
+        this.slots       = new ArrayList<List<Timer<T>>>(
+            Collections.nCopies(TimingWheel.N_SLOTS, null));
+        this.due         = new ArrayDeque<T>();
+        this.currentTick = 0;
+        this.size        = 0;
+    }
+
+    public void add(T item, long deadlineNanos) {
+        long tick = Math.ceilDiv(deadlineNanos - this.origin, this.tickNanos);
+
+        this.lock.lock();
+        try {
+            this.place(new Timer<T>(item, tick));
+            this.size++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Advances the wheel up to nowNanos, and removes up to max of the items that are due
+    public List<T> poll(long nowNanos, int max) {
+        long         nowTick = (nowNanos - this.origin) / this.tickNanos;
+        ArrayList<T> ret     = new ArrayList<T>();
+
+        this.lock.lock();
+        try {
+            while (this.currentTick < nowTick && this.due.size() < max)
+                this.tick();
+
+            while (ret.size() < max && !this.due.isEmpty())
+                ret.add(this.due.poll());
+            this.size -= ret.size();
+            return ret;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void tick() {
+        this.currentTick++;
+
+        // Cascade from the highest level whose slot boundary was just crossed
+        for (int level = TimingWheel.MAX_LEVEL; level > 0; level--) {
+            long levelTicks = 1L << (TimingWheel.WHEEL_BITS * level);
+            if (this.currentTick % levelTicks == 0) {
+                List<Timer<T>> timers = this.takeSlot(level);
+                if (timers != null)
+                    for (Timer<T> timer : timers)
+                        this.place(timer);
+            }
+        }
+
+        List<Timer<T>> timers = this.takeSlot(0);
+        if (timers != null)
+            for (Timer<T> timer : timers)
+                this.due.add(timer.item());
+    }
+
+    // Called with the lock held
+    private void place(Timer<T> timer) {
+        long delta = timer.tick() - this.currentTick;
+        if (delta <= 0) {
+            this.due.add(timer.item());
+            return;
+        }
+
+        int level = 0;
+        while (level < TimingWheel.MAX_LEVEL &&
+               delta >= 1L << (TimingWheel.WHEEL_BITS * (level + 1)))
+            level++;
+
+        // Timers beyond the highest level wait in its furthest slot, and are placed again later
+        long maxTick = this.currentTick + (1L << (TimingWheel.WHEEL_BITS * TimingWheel.LEVELS)) - 1;
+        int  index   = TimingWheel.slotIndex(level, Math.min(timer.tick(), maxTick));
+        if (this.slots.get(index) == null)
+            this.slots.set(index, new ArrayList<Timer<T>>());
+        this.slots.get(index).add(timer);
+    }
+
+    // Removes the timers in the slot of a level that the current tick falls in
+    private List<Timer<T>> takeSlot(int level) {
+        int index = TimingWheel.slotIndex(level, this.currentTick);
+        return this.slots.set(index, null);
+    }
+
+    private static int slotIndex(int level, long tick) {
+        long slot = (tick >>> (TimingWheel.WHEEL_BITS * level)) & (TimingWheel.WHEEL_SIZE - 1);
+        return level * TimingWheel.WHEEL_SIZE + (int) slot;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimingWheel(tickNanos=%d, size=%d)", this.tickNanos, this.size());
+    }
+}
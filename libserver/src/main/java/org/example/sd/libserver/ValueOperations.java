@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Read-modify-write operations on values, that backends run while holding a key's lock. Counters
+// are 8-byte big-endian values, and a missing key counts as 0 (or as an empty log, for appends).
+// Returned arrays never alias the other arguments, so backends can store them without a copy.
+public class ValueOperations {
+    public static final int COUNTER_BYTES    = Long.BYTES;
+    public static final int MAX_VALUE_LENGTH = Integer.MAX_VALUE - 4; // Largest safe array
+
+    public static byte[] add(byte[] current, long delta) {
+        try {
+            long value = Math.addExact(ValueOperations.toLong(current), delta);
+            return ByteBuffer.allocate(ValueOperations.COUNTER_BYTES).putLong(value).array();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Counter overflow");
+        }
+    }
+
+    public static long toLong(byte[] value) {
+        if (value == null)
+            return 0;
+        if (value.length != ValueOperations.COUNTER_BYTES)
+            throw new IllegalArgumentException(
+                String.format("Not a counter: value has %d bytes, not %d",
+                              value.length,
+                              ValueOperations.COUNTER_BYTES));
+
+        return ByteBuffer.wrap(value).getLong();
+    }
+
+    public static byte[] append(byte[] current, byte[] suffix) {
+        if (current == null)
+            return suffix.clone();
+        if ((long) current.length + suffix.length > ValueOperations.MAX_VALUE_LENGTH)
+            throw new IllegalArgumentException("Value too long");
+
+        byte[] ret = new byte[current.length + suffix.length];
+        System.arraycopy(current, 0, ret, 0, current.length);
+        System.arraycopy(suffix, 0, ret, current.length, suffix.length);
+        return ret;
+    }
+
+    // Bytes of a value between offset and offset + length, clamped to the end of the value
+    public static byte[] getRange(byte[] value, int offset, int length) {
+        ValueOperations.checkRange(offset, length);
+        if (value == null)
+            return null;
+
+        int from = Math.min(offset, value.length);
+        int to   = (int) Math.min((long) offset + length, value.length);
+        return Arrays.copyOfRange(value, from, to);
+    }
+
+    // Overwrites the bytes at offset, zero-padding the value if it's too short. When the range is
+    // within the value, it's patched in place, and current itself is returned.
+    public static byte[] putRange(byte[] current, int offset, byte[] bytes) {
+        ValueOperations.checkRange(offset, bytes.length);
+
+        int end = offset + bytes.length;
+        if (current == null || current.length < end) {
+            byte[] grown = new byte[end];
+            if (current != null)
+                System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+
+        System.arraycopy(bytes, 0, current, offset, bytes.length);
+        return current;
+    }
+
+    private static void checkRange(int offset, int length) {
+        if (offset < 0 || length < 0 || (long) offset + length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                String.format("Invalid range: offset %d, length %d", offset, length));
+    }
+
+    @Override
+    public String toString() {
+        return "ValueOperations()";
+    }
+}
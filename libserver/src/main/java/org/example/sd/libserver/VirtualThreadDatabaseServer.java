@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.example.sd.common.Buffer;
+import org.example.sd.common.KeyValueDB;
+import org.example.sd.common.Message;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+public class VirtualThreadDatabaseServer extends DatabaseServer {
+    private static final String PINNED_EVENT       = "jdk.VirtualThreadPinned";
+    private static final int    PINNED_STACK_DEPTH = 8;
+
+    private final AtomicLong pinnedCount;
+
+    public VirtualThreadDatabaseServer(int port, int maxConnections, KeyValueDB backend) {
+        this(port, new SessionManager(maxConnections), backend);
+    }
+
+    public VirtualThreadDatabaseServer(int port, SessionManager sessions, KeyValueDB backend) {
+        super(port, sessions, backend);
+        this.pinnedCount = new AtomicLong();
+    }
+
+    @Override
+    public void run() throws IOException {
+        // All locks in the server are j.u.c locks, so a carrier thread should never get pinned.
+        // Report it if it does happen, as that would quickly exhaust the carrier threads.
+        RecordingStream pinnedStream = new RecordingStream();
+        pinnedStream.enable(VirtualThreadDatabaseServer.PINNED_EVENT)
+            .withThreshold(Duration.ZERO)
+            .withStackTrace();
+        pinnedStream.onEvent(VirtualThreadDatabaseServer.PINNED_EVENT,
+                             e -> this.reportPinnedThread(e));
+        pinnedStream.startAsync();
+
+        try {
+            super.run();
+        } finally {
+            pinnedStream.close();
+        }
+    }
+
+    @Override
+    protected Thread newConnectionThread(Runnable r) {
+        return Thread.ofVirtual().unstarted(r);
+    }
+
+    @Override
+    protected void submitMessage(Message message, Buffer sendBuffer) {
+        Thread.startVirtualThread(() -> this.executeMessage(message, sendBuffer));
+    }
+
+    private void reportPinnedThread(RecordedEvent event) {
+        long count = this.pinnedCount.incrementAndGet();
+
+        StringBuilder message = new StringBuilder();
+        message.append(String.format("Carrier thread pinned for %d us (%d pinning events so far)\n",
+                                     event.getDuration().toNanos() / 1000,
+                                     count));
+
+        if (event.getStackTrace() != null) {
+            List<RecordedFrame> frames = event.getStackTrace().getFrames();
+            int depth = Math.min(frames.size(), VirtualThreadDatabaseServer.PINNED_STACK_DEPTH);
+            for (int i = 0; i < depth; ++i) {
+                RecordedFrame frame = frames.get(i);
+                message.append(String.format("    at %s.%s (line %d)\n",
+                                             frame.getMethod().getType().getName(),
+                                             frame.getMethod().getName(),
+                                             frame.getLineNumber()));
+            }
+        }
+
+        System.err.print(message.toString());
+    }
+
+    public long getPinnedCount() {
+        return this.pinnedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VirtualThreadDatabaseServer(backend=%s, port=%d)",
+                             ((Object) this.backend).getClass().getSimpleName(),
+                             this.port);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Decides which keys fit in a byte budget, by W-TinyLFU (Einziger et al.). New keys enter a small
+// LRU window, and a key pushed out of it only replaces the LRU key of the main space (a segmented
+// LRU) if the frequency sketch estimates that it is more popular, so that one-hit keys never
+// displace popular ones. Keys accessed again in the main space's probation segment are promoted to
+// its protected segment. Not thread-safe.
+public class WTinyLfuPolicy {
+    private static final double WINDOW_FRACTION    = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    // Keys in LRU order, with the size charged for each
+    private static class Segment {
+        private LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>();
+        private long                        bytes   = 0;
+
+        private void add(String key, long size) {
+            this.entries.put(key, size);
+            this.bytes += size;
+        }
+
+        private Long remove(String key) {
+            Long size = this.entries.remove(key);
+            if (size != null)
+                this.bytes -= size;
+            return size;
+        }
+
+        private String lru() {
+            return this.entries.isEmpty() ? null : this.entries.firstEntry().getKey();
+        }
+    }
+
+    private final long      budget;
+    private final long      windowBudget;
+    private final long      protectedBudget;
+    private FrequencySketch sketch;
+    private Segment         window;
+    private Segment         probation;
+    private Segment         protectedSegment;
+
+    public WTinyLfuPolicy(long budget) {
+        this.budget           = budget;
+        this.windowBudget     = Math.max((long) (budget * WTinyLfuPolicy.WINDOW_FRACTION), 1);
+        this.protectedBudget  =
+            (long) ((budget - this.windowBudget) * WTinyLfuPolicy.PROTECTED_FRACTION);
+        this.sketch           = new FrequencySketch(0);
+        this.window           = new Segment();
+        this.probation        = new Segment();
+        this.protectedSegment = new Segment();
+    }
+
+    public void recordAccess(String key) {
+        this.sketch.increment(key);
+
+        Long size;
+        if ((size = this.window.remove(key)) != null) {
+            this.window.add(key, size);
+        } else if ((size = this.probation.remove(key)) != null) {
+            this.protectedSegment.add(key, size);
+            this.demoteProtected();
+        } else if ((size = this.protectedSegment.remove(key)) != null) {
+            this.protectedSegment.add(key, size);
+        }
+    }
+
+    // Charges size bytes for a written key (replacing its previous size), and returns the keys that
+    // must be evicted to stay within budget (which may include the key itself), with the bytes that
+    // were charged for them
+    public Map<String, Long> recordWrite(String key, long size) {
+        this.sketch.increment(key);
+
+        Segment segment = this.segmentOf(key);
+        if (segment == null) {
+            segment = this.window;
+            this.sketch.ensureCapacity(this.size() + 1);
+        } else {
+            segment.remove(key);
+        }
+        segment.add(key, size);
+        if (segment == this.protectedSegment)
+            this.demoteProtected();
+
+        Map<String, Long> victims = new LinkedHashMap<String, Long>();
+        while (this.window.bytes > this.windowBudget) {
+            String candidate = this.window.lru();
+            this.admit(candidate, this.window.remove(candidate), victims);
+        }
+
+        // Keys that grew in the main space may still leave it over budget
+        while (this.getBytes() > this.budget) {
+            Segment from = this.probation.bytes > 0 ? this.probation
+                         : this.protectedSegment.bytes > 0 ? this.protectedSegment
+                         : this.window;
+            String victim = from.lru();
+            victims.put(victim, from.remove(victim));
+        }
+        return victims;
+    }
+
+    public void recordRemoval(String key) {
+        Segment segment = this.segmentOf(key);
+        if (segment != null)
+            segment.remove(key);
+    }
+
+    // Moves a key out of the window into probation, if it's more popular than every key it needs
+    // to evict from the main space. The victims are all compared before any of them is evicted, so
+    // that a rejected candidate never costs the main space any keys.
+    private void admit(String candidate, long size, Map<String, Long> victims) {
+        int                           frequency = this.sketch.frequency(candidate);
+        long                          excess    = this.getBytes() + size - this.budget;
+        List<Map.Entry<String, Long>> displaced = new ArrayList<Map.Entry<String, Long>>();
+
+        for (Segment from : List.of(this.probation, this.protectedSegment)) {
+            Iterator<Map.Entry<String, Long>> i = from.entries.entrySet().iterator();
+            while (excess > 0 && i.hasNext()) {
+                Map.Entry<String, Long> victim = i.next();
+                if (this.sketch.frequency(victim.getKey()) >= frequency) {
+                    victims.put(candidate, size);
+                    return;
+                }
+
+                displaced.add(victim);
+                excess -= victim.getValue();
+            }
+        }
+
+        if (excess > 0) {
+            victims.put(candidate, size);
+            return;
+        }
+
+        for (Map.Entry<String, Long> victim : displaced) {
+            victims.put(victim.getKey(), victim.getValue());
+            this.segmentOf(victim.getKey()).remove(victim.getKey());
+        }
+        this.probation.add(candidate, size);
+    }
+
+    private void demoteProtected() {
+        while (this.protectedSegment.bytes > this.protectedBudget) {
+            String key = this.protectedSegment.lru();
+            this.probation.add(key, this.protectedSegment.remove(key));
+        }
+    }
+
+    private Segment segmentOf(String key) {
+        if (this.window.entries.containsKey(key))
+            return this.window;
+        else if (this.probation.entries.containsKey(key))
+            return this.probation;
+        else if (this.protectedSegment.entries.containsKey(key))
+            return this.protectedSegment;
+        return null;
+    }
+
+    public long getBytes() {
+        return this.window.bytes + this.probation.bytes + this.protectedSegment.bytes;
+    }
+
+    public long getBudget() {
+        return this.budget;
+    }
+
+    public int size() {
+        return this.window.entries.size() + this.probation.entries.size() +
+            this.protectedSegment.entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WTinyLfuPolicy(budget=%d, bytes=%d, keys=%d)",
+                             this.budget,
+                             this.getBytes(),
+                             this.size());
+    }
+}
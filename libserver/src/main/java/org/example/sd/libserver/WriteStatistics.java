@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 Carolina Pereira, Diogo Costa, Humberto Gomes, Sara Lopes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example.sd.libserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WriteStatistics {
+    private final AtomicLong writeCalls;
+    private final AtomicLong bytesWritten;
+    private final AtomicLong batches;
+    private final AtomicLong messages;
+    private final AtomicLong largestBatch;
+
+    public WriteStatistics() {
+        this.writeCalls   = new AtomicLong();
+        this.bytesWritten = new AtomicLong();
+        this.batches      = new AtomicLong();
+        this.messages     = new AtomicLong();
+        this.largestBatch = new AtomicLong();
+    }
+
+    public void recordWrite(long bytes) {
+        this.writeCalls.incrementAndGet();
+        this.bytesWritten.addAndGet(bytes);
+    }
+
+    public void recordBatch(int batchMessages) {
+        this.batches.incrementAndGet();
+        this.messages.addAndGet(batchMessages);
+        this.largestBatch.accumulateAndGet(batchMessages, Math::max);
+    }
+
+    public long getWriteCalls() {
+        return this.writeCalls.get();
+    }
+
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    public long getBatches() {
+        return this.batches.get();
+    }
+
+    public long getMessages() {
+        return this.messages.get();
+    }
+
+    public long getLargestBatch() {
+        return this.largestBatch.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = this.batches.get();
+        return batches == 0 ? 0.0 : (double) this.messages.get() / batches;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "WriteStatistics(writeCalls=%d, bytesWritten=%d, batches=%d, messages=%d, averageBatchSize=%.2f, largestBatch=%d)",
+            this.getWriteCalls(),
+            this.getBytesWritten(),
+            this.getBatches(),
+            this.getMessages(),
+            this.getAverageBatchSize(),
+            this.getLargestBatch());
+    }
+}
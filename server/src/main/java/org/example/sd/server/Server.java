@@ -19,17 +19,27 @@ package org.example.sd.server;
 import java.io.IOException;
 
 import org.example.sd.common.KeyValueDB;
+import org.example.sd.libserver.ConcurrentHashMapBackend;
 import org.example.sd.libserver.DatabaseServer;
 import org.example.sd.libserver.MultiConditionHashMapBackend;
+import org.example.sd.libserver.OffHeapShardedHashMapBackend;
+import org.example.sd.libserver.SelectorDatabaseServer;
+import org.example.sd.libserver.SessionManager;
 import org.example.sd.libserver.ShardedHashMapBackend;
 import org.example.sd.libserver.SimpleHashMapBackend;
+import org.example.sd.libserver.SizeClassStatistics;
+import org.example.sd.libserver.VirtualThreadDatabaseServer;
 
 public class Server {
     public static void main(String[] args) throws IOException {
         // Parse command-line arguments
-        int        port           = 0;
-        int        maxConnections = 0;
-        KeyValueDB backend        = null;
+        int        port            = 0;
+        int        maxConnections  = 0;
+        KeyValueDB backend         = null;
+        String     serverMode      = "threads";
+        int        nLoops          = 0;
+        int        sessionsPerUser = 1;
+        long       maxBytes        = 0;
         try {
             port           = Integer.valueOf(args[0]);
             maxConnections = Integer.valueOf(args[1]);
@@ -46,22 +56,94 @@ public class Server {
                     backend = new ShardedHashMapBackend(Integer.valueOf(args[3]));
                     argCount++;
                     break;
+                case "offheapshardedhashmapbackend":
+                    backend = new OffHeapShardedHashMapBackend(Integer.valueOf(args[3]));
+                    argCount++;
+                    break;
+                case "concurrenthashmapbackend":
+                    backend = new ConcurrentHashMapBackend(Integer.valueOf(args[3]));
+                    argCount++;
+                    break;
                 default:
                     throw new Exception();
             }
 
+            // Options
+            while (argCount < args.length) {
+                String option = args[argCount].toLowerCase();
+                argCount++;
+
+                switch (option) {
+                    case "threads":
+                    case "virtual":
+                        serverMode = option;
+                        break;
+                    case "selector":
+                        serverMode = option;
+                        nLoops     = Integer.valueOf(args[argCount]);
+                        argCount++;
+                        if (nLoops <= 0)
+                            throw new Exception();
+                        break;
+                    case "per_user":
+                        sessionsPerUser = Integer.valueOf(args[argCount]);
+                        argCount++;
+                        if (sessionsPerUser <= 0)
+                            throw new Exception();
+                        break;
+                    case "max_bytes":
+                        maxBytes = Long.valueOf(args[argCount]);
+                        argCount++;
+                        if (!(backend instanceof ShardedHashMapBackend sharded))
+                            throw new Exception();
+                        else if (sharded instanceof OffHeapShardedHashMapBackend)
+                            backend = new OffHeapShardedHashMapBackend(sharded.getNShards(),
+                                                                       maxBytes);
+                        else
+                            backend = new ShardedHashMapBackend(sharded.getNShards(), maxBytes);
+                        break;
+                    default:
+                        throw new Exception();
+                }
+            }
+
             if (args.length != argCount)
                 throw new Exception();
         } catch (Exception e) {
             System.err.println(
-                "Usage: gradle :server:run --args \"<port> <max_connections> <backend>\"");
+                "Usage: gradle :server:run --args \"<port> <max_connections> <backend> [options]\"");
             System.err.println(
                 "         backend = SimpleHashMapBackend | MultiConditionHashMapBackend | ShardedHashMapBackend nShards");
+            System.err.println("                   | OffHeapShardedHashMapBackend nShards");
+            System.err.println("                   | ConcurrentHashMapBackend nStripes");
+            System.err.println("         options = [threads | virtual | selector nLoops] [per_user N]");
+            System.err.println("                   [max_bytes N] (sharded backends only)");
             System.exit(1);
         }
 
         // Serve requests
-        DatabaseServer server = new DatabaseServer(port, maxConnections, backend);
+        SessionManager sessions = new SessionManager(maxConnections, sessionsPerUser);
+        DatabaseServer server;
+        if (serverMode.equals("selector"))
+            server = new SelectorDatabaseServer(port, sessions, backend, nLoops);
+        else if (serverMode.equals("virtual"))
+            server = new VirtualThreadDatabaseServer(port, sessions, backend);
+        else
+            server = new DatabaseServer(port, sessions, backend);
+
+        final DatabaseServer finalServer  = server;
+        final KeyValueDB     finalBackend = backend;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.err.println(finalServer.getWriteStatistics());
+            if (finalBackend instanceof ShardedHashMapBackend sharded && sharded.getMaxBytes() > 0)
+                System.err.printf("%s, usedBytes=%d%n",
+                                  sharded.getEvictionStatistics(),
+                                  sharded.getUsedBytes());
+            if (finalBackend instanceof OffHeapShardedHashMapBackend offHeap)
+                for (SizeClassStatistics statistics : offHeap.getSlabStatistics())
+                    if (statistics.getSlabs() > 0)
+                        System.err.println(statistics);
+        }));
         server.run();
     }
 }
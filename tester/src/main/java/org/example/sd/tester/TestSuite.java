@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.OptionalDouble;
 
 import org.example.sd.common.KeyValueDB;
+import org.example.sd.libserver.ConcurrentHashMapBackend;
 import org.example.sd.libserver.MultiConditionHashMapBackend;
 import org.example.sd.libserver.ShardedHashMapBackend;
 import org.example.sd.libserver.SimpleHashMapBackend;
@@ -40,7 +41,7 @@ import org.jfree.data.category.CategoryDataset;
 import org.jfree.data.category.DefaultCategoryDataset;
 
 public class TestSuite {
-    private final static int[] threadCounts = new int[] { 1, 2, 4, 8, 16 };
+    private final static int[] threadCounts = new int[] { 1, 2, 4, 8, 16, 32 };
 
     private final static Map<String, OperationDistribution> operationDistributions = Map.ofEntries(
         Map.entry("Maioritariamente leituras",
@@ -52,7 +53,8 @@ public class TestSuite {
     private final static KeyValueDB[] backends =
         new KeyValueDB[] { new SimpleHashMapBackend(),
                            new MultiConditionHashMapBackend(),
-                           new ShardedHashMapBackend(64) };
+                           new ShardedHashMapBackend(64),
+                           new ConcurrentHashMapBackend(64) };
 
     private final String outputDirectory;
 
@@ -84,9 +86,6 @@ public class TestSuite {
 
                 DefaultCategoryDataset dataset = new DefaultCategoryDataset();
                 for (KeyValueDB backend : TestSuite.backends) {
-                    if (backend instanceof ShardedHashMapBackend && distValue.getGetWhen() > 0)
-                        continue;
-
                     TestResults results = this.runTest(nThreads, backend, distValue);
                     this.exportCSV(results, nThreads, distName, backend);
                     this.addTestResultsToComparisonDataset(dataset, results, backend);